@@ -1,178 +1,1160 @@
-import java.util.Set;
-import java.util.TreeSet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 public class BoggleSolver {
 
-    private final BoggleTrie<Integer> dictionary;
+    private final Lexicon dictionary;
+    // Solutions of recently seen boards, null if caching is disabled
+    private final BoardCache cache;
+    // Search buffers of every thread using this solver
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
 
     // Initializes the data structure using the given array of strings as the dictionary.
     // (You can assume each word in the dictionary contains only the uppercase letters A through Z.)
     public BoggleSolver(String[] dictionary) {
+        this(load(dictionary));
+    }
+
+    private BoggleSolver(Lexicon dictionary) {
+        this(dictionary, null);
+    }
+
+    private BoggleSolver(Lexicon dictionary, BoardCache cache) {
+        this.dictionary = dictionary;
+        this.cache = cache;
+    }
+
+    // Returns solver sharing this solver's dictionary which remembers solutions of
+    // the last capacity distinct boards. Boards that are rotations or reflections
+    // of each other share one cache entry since they contain the same words.
+    public BoggleSolver withCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        return new BoggleSolver(dictionary, new BoardCache(capacity));
+    }
+
+    // Number of boards answered from the cache, zero if there is no cache
+    public long cacheHits() {
+        return cache == null ? 0 : cache.hits();
+    }
+
+    // Number of boards which had to be solved despite the cache, zero if there is no cache
+    public long cacheMisses() {
+        return cache == null ? 0 : cache.misses();
+    }
+
+    // Compiles the dictionary into a snapshot file which open(snapshot) can
+    // later use without building the trie again.
+    public static void compile(String[] dictionary, Path snapshot) throws IOException {
+        validateNonNull(snapshot);
+        load(dictionary).write(snapshot);
+    }
+
+    // Returns solver answering queries directly from a memory mapped snapshot
+    // written by compile. Throws IllegalArgumentException if the file is not a
+    // snapshot of the current format or is corrupted.
+    public static BoggleSolver open(Path snapshot) throws IOException {
+        validateNonNull(snapshot);
+        return new BoggleSolver(MappedTrie.open(snapshot));
+    }
+
+    // Returns solver keeping the dictionary as a minimal acyclic automaton (DAWG)
+    // instead of a trie. Words sharing a suffix share the states spelling it,
+    // which takes far less memory for large dictionaries at the cost of a longer
+    // construction.
+    public static BoggleSolver dawg(String[] dictionary) {
+        validateNonNull(dictionary);
+        String[] words = dictionary.clone();
+        for (String word : words) {
+            validateNonNull(word);
+        }
+        Arrays.sort(words);
+        return new BoggleSolver(new Dawg(words));
+    }
+
+    private static BoggleTrie load(String[] dictionary) {
         validateNonNull(dictionary);
-        this.dictionary = new BoggleTrie<>();
+        BoggleTrie trie = new BoggleTrie();
         for (String word : dictionary) {
             validateNonNull(word);
-            int length = word.length();
-            int score = 0;
-            switch (length) {
-                case 0:
-                case 1:
-                case 2:
-                    break;
-                case 3:
-                case 4:
-                    score = 1;
-                    break;
-                case 5:
-                    score = 2;
-                    break;
-                case 6:
-                    score = 3;
-                    break;
-                case 7:
-                    score = 5;
-                    break;
-                default:
-                    score = 11;
-            }
-
-            this.dictionary.put(word, score);
+            trie.put(word, score(word.length()));
         }
+        trie.compact();
+        return trie;
+    }
+
+    // Score of a dictionary word of the given length
+    private static int score(int length) {
+        int score = 0;
+        switch (length) {
+            case 0:
+            case 1:
+            case 2:
+                break;
+            case 3:
+            case 4:
+                score = 1;
+                break;
+            case 5:
+                score = 2;
+                break;
+            case 6:
+                score = 3;
+                break;
+            case 7:
+                score = 5;
+                break;
+            default:
+                score = 11;
+        }
+        return score;
     }
 
     // Returns the set of all valid words in the given Boggle board, as an Iterable.
+    // Words are not sorted and their strings are only built during iteration.
     public Iterable<String> getAllValidWords(BoggleBoard board) {
         validateNonNull(board);
+        return solve(board).words;
+    }
+
+    // Returns total score of all valid words in the given board. Does not build
+    // the words themselves.
+    public int totalScore(BoggleBoard board) {
+        validateNonNull(board);
+        if (cache != null) {
+            Solution solution = cache.get(BoardCache.key(board));
+            if (solution != null) return solution.score;
+        }
+        Search search = searches.get();
+        search.reset(board, false);
+        for (int cell = 0; cell < search.cells; cell++) {
+            search.start(cell);
+        }
+        return search.score;
+    }
+
+    // Same as getAllValidWords(board) but splits starting cells between workers
+    // of the given pool. Pays off for large boards only.
+    public Iterable<String> getAllValidWords(BoggleBoard board, ForkJoinPool pool) {
+        validateNonNull(board);
+        validateNonNull(pool);
+        String key = cache == null ? null : BoardCache.key(board);
+        if (key != null) {
+            Solution solution = cache.get(key);
+            if (solution != null) return solution.words;
+        }
+        char[] letters = letters(board);
+        FoundWords words = pool.invoke(new SearchTask(Shape.of(board.rows(), board.cols()), letters, 0, letters.length));
+        if (key != null) {
+            int score = 0;
+            for (String word : words) {
+                score += scoreOf(word);
+            }
+            cache.put(key, new Solution(words, score));
+        }
+        return words;
+    }
+
+    // Solves all boards using given number of threads and returns their solutions
+    // in the same order.
+    public List<Solution> solveAll(BoggleBoard[] boards, int threads) {
+        validateNonNull(boards);
+        return solveAll(Arrays.asList(boards).iterator(), threads, 4 * threads);
+    }
+
+    // Solves boards produced by the iterator using given number of threads. At most
+    // queueCapacity boards wait for a free thread, once the queue is full the
+    // calling thread solves the next board itself instead of reading further ahead.
+    public List<Solution> solveAll(Iterator<BoggleBoard> boards, int threads, int queueCapacity) {
+        validateNonNull(boards);
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("threads and queueCapacity must be positive");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            List<Future<Solution>> pending = new ArrayList<>();
+            while (boards.hasNext()) {
+                BoggleBoard board = boards.next();
+                validateNonNull(board);
+                pending.add(executor.submit(() -> solve(board)));
+            }
+            List<Solution> solutions = new ArrayList<>(pending.size());
+            for (Future<Solution> solution : pending) {
+                solutions.add(solution.get());
+            }
+            return solutions;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while solving boards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Returns solution of board from the cache or solves it
+    private Solution solve(BoggleBoard board) {
+        if (cache == null) return search(board);
+        String key = BoardCache.key(board);
+        Solution solution = cache.get(key);
+        if (solution == null) {
+            solution = search(board);
+            cache.put(key, solution);
+        }
+        return solution;
+    }
+
+    // Solves board with the search buffers of the calling thread
+    private Solution search(BoggleBoard board) {
+        Search search = searches.get();
+        search.reset(board, true);
+        for (int cell = 0; cell < search.cells; cell++) {
+            search.start(cell);
+        }
+        return new Solution(search.words(), search.score);
+    }
+
+
+    private static char[] letters(BoggleBoard board) {
         int rows = board.rows();
         int cols = board.cols();
-        TreeSet<String> words = new TreeSet<>();
+        char[] letters = new char[rows * cols];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < cols; j++) {
-                bfs(board, i, j, new boolean[rows * cols], "", words);
+                letters[i * cols + j] = board.getLetter(i, j);
             }
         }
-        return words;
+        return letters;
     }
 
 
-    private void bfs(BoggleBoard board, int row, int col, boolean[] visited, String key, Set<String> acc) {
-        int rows = board.rows();
-        int cols = board.cols();
-        int index = cols * row + col;
+    // Words found on a board. Letters of all words are stored one after another
+    // in a single array and strings are only created by the iterator. Every word
+    // also keeps its dictionary id (see Lexicon.wordId).
+    private static final class FoundWords implements Iterable<String> {
+        private final char[] chars;
+        // Word i occupies chars[end[i - 1]] .. chars[end[i] - 1]
+        private final int[] end;
+        private final int[] ids;
+
+        FoundWords(char[] chars, int[] end, int[] ids) {
+            this.chars = chars;
+            this.end = end;
+            this.ids = ids;
+        }
+
+        // Returns words of a followed by those words of b which a does not contain
+        static FoundWords merge(FoundWords a, FoundWords b) {
+            BitSet seen = new BitSet();
+            for (int id : a.ids) {
+                seen.set(id);
+            }
+            char[] chars = Arrays.copyOf(a.chars, a.chars.length + b.chars.length);
+            int[] end = Arrays.copyOf(a.end, a.end.length + b.end.length);
+            int[] ids = Arrays.copyOf(a.ids, a.ids.length + b.ids.length);
+            int count = a.ids.length;
+            int length = a.chars.length;
+            for (int i = 0; i < b.ids.length; i++) {
+                if (seen.get(b.ids[i])) continue;
+                int start = b.start(i);
+                System.arraycopy(b.chars, start, chars, length, b.end[i] - start);
+                length += b.end[i] - start;
+                end[count] = length;
+                ids[count++] = b.ids[i];
+            }
+            return new FoundWords(Arrays.copyOf(chars, length), Arrays.copyOf(end, count), Arrays.copyOf(ids, count));
+        }
+
+        private int start(int i) {
+            return i == 0 ? 0 : end[i - 1];
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < end.length;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    String word = new String(chars, start(i), end[i] - start(i));
+                    i++;
+                    return word;
+                }
+            };
+        }
+    }
+
+
+    // Words found on a board together with their total score
+    public static final class Solution {
+        private final Iterable<String> words;
+        private final int score;
+
+        private Solution(Iterable<String> words, int score) {
+            this.words = words;
+            this.score = score;
+        }
+
+        public Iterable<String> words() {
+            return words;
+        }
+
+        public int score() {
+            return score;
+        }
+    }
+
+
+    // Bounded LRU map from canonical board keys to solutions.
+    //
+    // A board and its images under the 8 symmetries of a rectangle (rotations by
+    // multiples of 90 degrees and reflections) have the same adjacency, hence the
+    // same words. The key of a board is its smallest image, comparing dimensions
+    // first and then letters in row major order.
+    private static class BoardCache {
+        private final LinkedHashMap<String, Solution> solutions;
+        private long hits;
+        private long misses;
+
+        BoardCache(int capacity) {
+            solutions = new LinkedHashMap<String, Solution>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Solution> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized Solution get(String key) {
+            Solution solution = solutions.get(key);
+            if (solution == null) misses++;
+            else hits++;
+            return solution;
+        }
+
+        synchronized void put(String key, Solution solution) {
+            solutions.put(key, solution);
+        }
+
+        synchronized long hits() {
+            return hits;
+        }
+
+        synchronized long misses() {
+            return misses;
+        }
+
+        static String key(BoggleBoard board) {
+            int rows = board.rows();
+            int cols = board.cols();
+            char[] letters = letters(board);
+            // Images are compared lazily, most of them lose on the first few cells
+            int best = 0;
+            for (int t = 1; t < 8; t++) {
+                if (compare(t, best, rows, cols, letters) < 0) best = t;
+            }
+            char[] key = new char[letters.length + 2];
+            key[0] = (char) imageRows(best, rows, cols);
+            key[1] = (char) imageRows(best, cols, rows);
+            for (int k = 0; k < letters.length; k++) {
+                key[k + 2] = letters[cell(best, k, rows, cols)];
+            }
+            return new String(key);
+        }
+
+        private static int compare(int t1, int t2, int rows, int cols, char[] letters) {
+            int cmp = Integer.compare(imageRows(t1, rows, cols), imageRows(t2, rows, cols));
+            if (cmp != 0) return cmp;
+            for (int k = 0; k < letters.length; k++) {
+                cmp = Character.compare(letters[cell(t1, k, rows, cols)], letters[cell(t2, k, rows, cols)]);
+                if (cmp != 0) return cmp;
+            }
+            return 0;
+        }
+
+        // Number of rows of image t of a rows x cols board. Images 4-7 are transposed.
+        private static int imageRows(int t, int rows, int cols) {
+            return t < 4 ? rows : cols;
+        }
+
+        // Returns cell of the original board which is k-th cell (row major) of image t
+        private static int cell(int t, int k, int rows, int cols) {
+            int imageCols = t < 4 ? cols : rows;
+            int i = k / imageCols;
+            int j = k % imageCols;
+            switch (t) {
+                case 0: return i * cols + j;
+                case 1: return i * cols + (cols - 1 - j);
+                case 2: return (rows - 1 - i) * cols + j;
+                case 3: return (rows - 1 - i) * cols + (cols - 1 - j);
+                case 4: return j * cols + i;
+                case 5: return (rows - 1 - j) * cols + i;
+                case 6: return j * cols + (cols - 1 - i);
+                default: return (rows - 1 - j) * cols + (cols - 1 - i);
+            }
+        }
+    }
+
+
+    // Searches words starting at cells [from, to). Every leaf task runs its own
+    // Search, so workers share only the read-only trie, shape and letters.
+    private class SearchTask extends RecursiveTask<FoundWords> {
+        private static final long serialVersionUID = 1L;
+        // Number of starting cells below which a task is not split any further
+        private static final int THRESHOLD = 8;
+        private final Shape shape;
+        private final char[] letters;
+        private final int from;
+        private final int to;
+
+        SearchTask(Shape shape, char[] letters, int from, int to) {
+            this.shape = shape;
+            this.letters = letters;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected FoundWords compute() {
+            if (to - from <= THRESHOLD) {
+                Search search = searches.get();
+                search.reset(shape, letters, true);
+                for (int cell = from; cell < to; cell++) {
+                    search.start(cell);
+                }
+                return search.words();
+            }
+            int mid = (from + to) >>> 1;
+            SearchTask left = new SearchTask(shape, letters, from, mid);
+            left.fork();
+            FoundWords words = new SearchTask(shape, letters, mid, to).compute();
+            return FoundWords.merge(left.join(), words);
+        }
+    }
+
+
+    // State of a single board traversal. The search carries the trie node of the
+    // current path down the recursion and keeps the path itself in a buffer, so a
+    // string is only built once a word is found. Every thread keeps one Search
+    // and reuses its buffers for all boards it solves.
+    private class Search {
+        private Shape shape;
+        private int cells;
+        private char[] letters;
+        // Holds letters of boards loaded by reset(board)
+        private char[] board = new char[0];
+        // Visited cells of boards larger than 64 cells. Smaller boards keep
+        // visited cells in a long passed down the recursion.
+        private long[] visited = new long[0];
+        // Letters of the current path. Each cell contributes at most two ("QU")
+        private char[] path = new char[0];
+        // stamp[id] == epoch iff the word with this id was already found on the
+        // current board, so stamps never need to be cleared between boards
+        private int[] stamp = new int[0];
+        private int epoch;
+        // Total score of found words
+        private int score;
+        // Found words in FoundWords layout, only kept if record is set
+        private boolean record;
+        private char[] chars = new char[64];
+        private int length;
+        private int[] end = new int[16];
+        private int[] ids = new int[16];
+        private int count;
+
+        // Prepares search of the given board. Found words are only kept if record
+        // is set, the score is always computed.
+        void reset(BoggleBoard board, boolean record) {
+            int rows = board.rows();
+            int cols = board.cols();
+            if (this.board.length < rows * cols) {
+                this.board = new char[rows * cols];
+            }
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    this.board[i * cols + j] = board.getLetter(i, j);
+                }
+            }
+            reset(Shape.of(rows, cols), this.board, record);
+        }
+
+        // Prepares search of a board of given shape whose letters are stored in
+        // row major order. The letters array is not copied.
+        void reset(Shape shape, char[] letters, boolean record) {
+            this.shape = shape;
+            this.letters = letters;
+            cells = shape.start.length - 1;
+            int bitsetLength = (cells + Long.SIZE - 1) / Long.SIZE;
+            if (cells > Long.SIZE && visited.length < bitsetLength) {
+                visited = new long[bitsetLength];
+            }
+            if (path.length < 2 * cells) {
+                path = new char[2 * cells];
+            }
+            if (stamp.length < dictionary.idCount()) {
+                stamp = new int[dictionary.idCount()];
+            }
+            if (++epoch == 0) {
+                Arrays.fill(stamp, 0);
+                epoch = 1;
+            }
+            score = 0;
+            this.record = record;
+            length = 0;
+            count = 0;
+        }
+
+        // Returns copy of words found since the last reset
+        FoundWords words() {
+            return new FoundWords(Arrays.copyOf(chars, length), Arrays.copyOf(end, count), Arrays.copyOf(ids, count));
+        }
+
+        // Finds all words starting at cell
+        void start(int cell) {
+            if (cells <= Long.SIZE) {
+                dfs(cell, Lexicon.ROOT, 0, 0, 0L);
+            } else {
+                dfs(cell, Lexicon.ROOT, 0, 0);
+            }
+        }
+
+        // Extends path of given length and rank ending at trie node by cell. Used
+        // for boards with at most 64 cells.
+        private void dfs(int cell, int node, int rank, int length, long visited) {
+            int next = extend(node, cell, length);
+            if (next == Lexicon.NONE) return;
+            rank = rank(node, cell, rank);
+            node = next;
+            length += letters[cell] == 'Q' ? 2 : 1;
+            collect(node, rank, length);
+
+            visited |= 1L << cell;
+            int[] adj = shape.adj;
+            for (int k = shape.start[cell]; k < shape.start[cell + 1]; k++) {
+                int neighbour = adj[k];
+                if ((visited & (1L << neighbour)) == 0) {
+                    dfs(neighbour, node, rank, length, visited);
+                }
+            }
+        }
+
+        // Same as above for boards with more than 64 cells
+        private void dfs(int cell, int node, int rank, int length) {
+            int next = extend(node, cell, length);
+            if (next == Lexicon.NONE) return;
+            rank = rank(node, cell, rank);
+            node = next;
+            length += letters[cell] == 'Q' ? 2 : 1;
+            collect(node, rank, length);
+
+            visited[cell >>> 6] |= 1L << cell;
+            int[] adj = shape.adj;
+            for (int k = shape.start[cell]; k < shape.start[cell + 1]; k++) {
+                int neighbour = adj[k];
+                if ((visited[neighbour >>> 6] & (1L << neighbour)) == 0) {
+                    dfs(neighbour, node, rank, length);
+                }
+            }
+            visited[cell >>> 6] &= ~(1L << cell);
+        }
 
-        if (visited[index]) return;
-        char letter = board.getLetter(row, col);
-        key = (letter != 'Q') ? key + letter : key + "QU";
+        // Returns trie node reached from node by appending letters of cell to the
+        // path of given length, NONE if there is no such node
+        private int extend(int node, int cell, int length) {
+            char letter = letters[cell];
+            // Dictionary nodes only exist on the way to a word, therefore reaching
+            // a node already means there is a word with this prefix
+            node = dictionary.next(node, letter - Lexicon.OFFSET);
+            if (node == Lexicon.NONE) return node;
+            path[length] = letter;
+            if (letter == 'Q') {
+                node = dictionary.next(node, 'U' - Lexicon.OFFSET);
+                path[length + 1] = 'U';
+            }
+            return node;
+        }
 
+        // Returns rank of the path extended by cell, given rank of the path ending at node
+        private int rank(int node, int cell, int rank) {
+            int c = letters[cell] - Lexicon.OFFSET;
+            rank += dictionary.rank(node, c);
+            if (letters[cell] == 'Q') {
+                rank += dictionary.rank(dictionary.next(node, c), 'U' - Lexicon.OFFSET);
+            }
+            return rank;
+        }
+
+        private void collect(int node, int rank, int pathLength) {
+            int wordScore = dictionary.score(node, pathLength);
+            if (pathLength <= 2 || wordScore == Lexicon.NO_WORD) return;
+            int id = dictionary.wordId(node, rank);
+            if (stamp[id] == epoch) return;
+            stamp[id] = epoch;
+            score += wordScore;
+            if (!record) return;
+
+            if (length + pathLength > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(2 * chars.length, length + pathLength));
+            }
+            if (count == ids.length) {
+                end = Arrays.copyOf(end, 2 * count);
+                ids = Arrays.copyOf(ids, 2 * count);
+            }
+            System.arraycopy(path, 0, chars, length, pathLength);
+            length += pathLength;
+            end[count] = length;
+            ids[count++] = id;
+        }
+    }
 
-        if (!dictionary.hasKeysWithPrefix(key)) return;
-        if (key.length() > 2 && dictionary.contains(key)) acc.add(key);
 
-        visited[index] = true;
+    // Adjacency lists of all cells of a rows x cols board. Neighbours of cell c
+    // are adj[start[c]] .. adj[start[c + 1] - 1]. Tables only depend on board
+    // dimensions and are computed once per shape. Shapes are immutable and may be
+    // shared between threads.
+    private static class Shape {
+        private static final Map<Long, Shape> CACHE = new ConcurrentHashMap<>();
+        private final int[] start;
+        private final int[] adj;
 
-        if (row < rows - 1) bfs(board, row + 1, col, visited, key, acc);
-        if (row > 0) bfs(board, row - 1, col, visited, key, acc);
-        if (col > 0) bfs(board, row, col - 1, visited, key, acc);
-        if (col < cols - 1) bfs(board, row, col + 1, visited, key, acc);
-        if (row > 0 && col > 0) bfs(board, row - 1, col - 1, visited, key, acc);
-        if (row > 0 && col < cols - 1) bfs(board, row - 1, col + 1, visited, key, acc);
-        if (row < rows - 1 && col > 0) bfs(board, row + 1, col - 1, visited, key, acc);
-        if (row < rows - 1 && col < cols - 1) bfs(board, row + 1, col + 1, visited, key, acc);
+        private Shape(int rows, int cols) {
+            start = new int[rows * cols + 1];
+            int[] neighbours = new int[8 * rows * cols];
+            int size = 0;
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    start[row * cols + col] = size;
+                    for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+                        for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, cols - 1); j++) {
+                            if (i != row || j != col) {
+                                neighbours[size++] = i * cols + j;
+                            }
+                        }
+                    }
+                }
+            }
+            start[rows * cols] = size;
+            adj = Arrays.copyOf(neighbours, size);
+        }
 
-        visited[index] = false;
+        static Shape of(int rows, int cols) {
+            return CACHE.computeIfAbsent(((long) rows << 32) | cols, key -> new Shape(rows, cols));
+        }
     }
 
     // Returns the score of the given word if it is in the dictionary, zero otherwise.
     // (You can assume the word contains only the uppercase letters A through Z.)
     public int scoreOf(String word) {
         validateNonNull(word);
-        if (!this.dictionary.contains(word)) return 0;
-        return this.dictionary.get(word);
+        int score = this.dictionary.get(word);
+        return score == Lexicon.NO_WORD ? 0 : score;
     }
 
 
-    private void validateNonNull(Object o) {
+    private static void validateNonNull(Object o) {
         if (o == null) throw new IllegalArgumentException();
     }
 
 
-    private static class BoggleTrie<Value> {
-        private static final int R = 26;
+    // Read-only dictionary trie used by the search. Nodes are identified by
+    // non-negative ints, the root being ROOT.
+    private interface Lexicon {
         // A character ASCII code
-        private static final int OFFSET = 65;
-        // Last prefix hasKeysWithPrefix method was called
-        private String lastPrefix;
-        // Last node resulting from lastPrefix
-        private Node lastPrefixNode;
-        private Node root = new Node();
+        int OFFSET = 65;
+        int ROOT = 0;
+        int NONE = -1;
+        int NO_WORD = -1;
+
+        // Returns child of x for letter c (0 for 'A') or NONE
+        int next(int x, int c);
 
+        // Returns score of the word of given length ending at node x or NO_WORD
+        int score(int x, int length);
 
-        private static class Node {
-            private Object value;
-            private Node[] next = new Node[R];
+        // Words are numbered 0 .. idCount() - 1
+        int idCount();
+
+        // Dictionaries whose nodes may be shared by several words tell them apart
+        // by the rank of the path, which is the sum of rank(x, c) over its edges.
+        // Trie nodes identify words on their own.
+        default int rank(int x, int c) {
+            return 0;
         }
 
+        // Returns id of the word ending at node x whose path has given rank
+        default int wordId(int x, int rank) {
+            return x;
+        }
+
+        // Returns score of the key or NO_WORD if key is not in the dictionary
+        default int get(String key) {
+            int x = ROOT;
+            for (int d = 0; d < key.length() && x != NONE; d++) {
+                x = next(x, key.charAt(d) - OFFSET);
+            }
+            if (x == NONE) return NO_WORD;
+            return score(x, key.length());
+        }
+    }
+
+
+    // Trie laid out in flat primitive arrays instead of one Node object (with its
+    // own 26-slot array) per character.
+    //
+    // While the dictionary is loaded nodes are kept as first-child/next-sibling
+    // lists. compact() then renumbers nodes in breadth first order so that all
+    // children of a node are stored next to each other in alphabetical order. After
+    // that a node is described by a 26 bit mask of letters it has children for and
+    // the index of its first child: the child for letter c is
+    // first[x] + bitCount(mask[x] & ((1 << c) - 1)). score[x] holds the score of
+    // the word ending at x or NO_WORD.
+    //
+    // Once compacted the trie is never modified, so any number of threads may
+    // read it concurrently.
+    private static class BoggleTrie implements Lexicon {
+        private static final int R = 26;
+        private static final int INITIAL_CAPACITY = 1024;
+        // Number of nodes, root included
+        private int size;
+        private byte[] score;
+        // Compact representation
+        private int[] mask;
+        private int[] first;
+        // Representation used while loading, dropped by compact()
+        private int[] child;
+        private int[] sibling;
+        private byte[] letter;
 
-        Value get(String key) {
-            Node x = get(root, key, 0);
-            if (x == null) return null;
-            return (Value) x.value;
+        BoggleTrie() {
+            child = new int[INITIAL_CAPACITY];
+            sibling = new int[INITIAL_CAPACITY];
+            letter = new byte[INITIAL_CAPACITY];
+            score = new byte[INITIAL_CAPACITY];
+            child[ROOT] = NONE;
+            sibling[ROOT] = NONE;
+            score[ROOT] = (byte) NO_WORD;
+            size = 1;
         }
 
 
-        boolean contains(String key) {
-            return get(key) != null;
+        @Override
+        public int score(int x, int length) {
+            return score[x];
         }
 
-        private Node get(Node x, String key, int d) {
-            if (d == key.length() || x == null) return x;
-            return get(x.next[key.charAt(d) - OFFSET], key, d + 1);
+        @Override
+        public int idCount() {
+            return size;
         }
 
-        void put(String key, Value v) {
-            root = put(root, key, v, 0);
+        @Override
+        public int next(int x, int c) {
+            int bit = 1 << c;
+            if ((mask[x] & bit) == 0) return NONE;
+            return first[x] + Integer.bitCount(mask[x] & (bit - 1));
         }
 
-        private Node put(Node x, String key, Value v, int d) {
-            if (x == null) x = new Node();
-            if (d == key.length()) {
-                x.value = v;
-                return x;
+        void put(String key, int value) {
+            int x = ROOT;
+            for (int d = 0; d < key.length(); d++) {
+                byte c = (byte) (key.charAt(d) - OFFSET);
+                int y = child[x];
+                while (y != NONE && letter[y] != c) {
+                    y = sibling[y];
+                }
+                if (y == NONE) {
+                    y = newNode(c);
+                    sibling[y] = child[x];
+                    child[x] = y;
+                }
+                x = y;
             }
-            char c = key.charAt(d);
-            x.next[c - OFFSET] = put(x.next[c - OFFSET], key, v, d + 1);
-            return x;
+            score[x] = (byte) value;
         }
 
-        public boolean hasKeysWithPrefix(String prefix) {
-            Node x;
-            if (lastPrefix == null || prefix.indexOf(lastPrefix) != 0) {
-                x = get(root, prefix, 0);
-            } else {
-                x = get(lastPrefixNode, prefix, prefix.length() - 1);
+        private int newNode(byte c) {
+            if (size == score.length) {
+                int capacity = 2 * size;
+                child = Arrays.copyOf(child, capacity);
+                sibling = Arrays.copyOf(sibling, capacity);
+                letter = Arrays.copyOf(letter, capacity);
+                score = Arrays.copyOf(score, capacity);
+            }
+            child[size] = NONE;
+            letter[size] = c;
+            score[size] = (byte) NO_WORD;
+            return size++;
+        }
+
+        // Switches to the compact representation. Must be called once after the
+        // last put and before any lookup.
+        void compact() {
+            mask = new int[size];
+            first = new int[size];
+            byte[] compactScore = new byte[size];
+            // order[i] is the loading-time id of the node which gets id i
+            int[] order = new int[size];
+            order[0] = ROOT;
+            int tail = 1;
+            for (int head = 0; head < size; head++) {
+                int x = order[head];
+                compactScore[head] = score[x];
+                first[head] = tail;
+                for (int c = 0; c < R; c++) {
+                    for (int y = child[x]; y != NONE; y = sibling[y]) {
+                        if (letter[y] == c) {
+                            mask[head] |= 1 << c;
+                            order[tail++] = y;
+                            break;
+                        }
+                    }
+                }
             }
+            score = compactScore;
+            child = null;
+            sibling = null;
+            letter = null;
+        }
+
+        // Writes the compacted trie in the format read by MappedTrie
+        void write(Path snapshot) throws IOException {
+            ByteBuffer body = ByteBuffer.allocate(MappedTrie.bodyLength(size));
+            body.asIntBuffer().put(mask).put(first);
+            body.position(2 * Integer.BYTES * size);
+            body.put(score);
+            body.flip();
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
 
-            // Since most calls to this method will be with prefixes that differ
-            // by one additional letter we want to update instance variables only
-            // when length difference is greater than two
-            if (lastPrefix == null || lastPrefix.length() < prefix.length() - 2) {
-                lastPrefix = prefix;
-                lastPrefixNode = x;
+            ByteBuffer header = ByteBuffer.allocate(MappedTrie.HEADER_LENGTH);
+            header.putInt(MappedTrie.MAGIC).putInt(MappedTrie.VERSION).putInt(size).putInt((int) crc.getValue());
+            header.flip();
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) channel.write(header);
+                while (body.hasRemaining()) channel.write(body);
             }
+        }
+
+    }
+
+
+    // Trie read straight from a snapshot file mapped into memory. The file holds
+    // a header (magic, format version, number of nodes n and CRC32 of the rest)
+    // followed by the arrays of a compacted BoggleTrie: n ints of child masks,
+    // n ints of first child indices and n score bytes.
+    private static class MappedTrie implements Lexicon {
+        private static final int MAGIC = 0x424F474C;
+        // Must be increased on every change of the file layout
+        private static final int VERSION = 1;
+        private static final int HEADER_LENGTH = 4 * Integer.BYTES;
+        private final ByteBuffer buffer;
+        private final int size;
+        private final int firstOffset;
+        private final int scoreOffset;
+
+        private MappedTrie(ByteBuffer buffer, int size) {
+            this.buffer = buffer;
+            this.size = size;
+            firstOffset = HEADER_LENGTH + Integer.BYTES * size;
+            scoreOffset = HEADER_LENGTH + 2 * Integer.BYTES * size;
+        }
 
-            return (x != null && (x.value != null ||
-                    collect(x)));
+        static int bodyLength(int size) {
+            return (2 * Integer.BYTES + 1) * size;
         }
 
-        private boolean collect(Node x) {
-            if (x == null) return false;
-            if (x.value != null) return true;
-            for (char c = OFFSET; c < OFFSET + R; c++) {
-                boolean success = collect(x.next[c - OFFSET]);
-                if (success) return true;
+        static MappedTrie open(Path snapshot) throws IOException {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("not a dictionary snapshot: " + snapshot);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("not a dictionary snapshot: " + snapshot);
+            }
+            if (buffer.getInt(Integer.BYTES) != VERSION) {
+                throw new IllegalArgumentException("snapshot " + snapshot + " has version "
+                        + buffer.getInt(Integer.BYTES) + ", expected " + VERSION);
+            }
+            int size = buffer.getInt(2 * Integer.BYTES);
+            if (size <= 0 || buffer.capacity() != HEADER_LENGTH + (long) bodyLength(size)) {
+                throw new IllegalArgumentException("truncated dictionary snapshot: " + snapshot);
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(HEADER_LENGTH);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(3 * Integer.BYTES)) {
+                throw new IllegalArgumentException("checksum mismatch in dictionary snapshot: " + snapshot);
+            }
+            return new MappedTrie(buffer, size);
+        }
+
+        @Override
+        public int next(int x, int c) {
+            int mask = buffer.getInt(HEADER_LENGTH + Integer.BYTES * x);
+            int bit = 1 << c;
+            if ((mask & bit) == 0) return NONE;
+            return buffer.getInt(firstOffset + Integer.BYTES * x) + Integer.bitCount(mask & (bit - 1));
+        }
+
+        @Override
+        public int score(int x, int length) {
+            return buffer.get(scoreOffset + x);
+        }
+
+        @Override
+        public int idCount() {
+            return size;
+        }
+    }
+
+
+    // Minimal acyclic automaton accepting exactly the dictionary words, built
+    // incrementally from the sorted word list (Daciuk et al., "Incremental
+    // Construction of Minimal Acyclic Finite-State Automata"). States use the same
+    // mask/first layout as the compacted trie, except that first[x] points into
+    // the target array since a state may be shared by many prefixes. Only
+    // acceptance is stored per state, scores are derived from the word length.
+    //
+    // Word ids are ranks of words in sorted order. offset[e] is the number of
+    // words that are ranked before all words reached through edge e by the words
+    // leaving its source state: one if the state accepts, plus the words reached
+    // through its edges with smaller letters.
+    private static class Dawg implements Lexicon {
+        private static final int R = 26;
+        private static final int INITIAL_CAPACITY = 1024;
+        // Registered states
+        private int states;
+        private int[] mask = new int[INITIAL_CAPACITY];
+        private int[] first = new int[INITIAL_CAPACITY];
+        private long[] terminal = new long[INITIAL_CAPACITY / Long.SIZE];
+        private int edges;
+        private int[] target = new int[INITIAL_CAPACITY];
+        private int[] offset;
+        // Number of words
+        private final int size;
+        // Open addressing hash table of registered states, -1 marks free slots
+        private int[] register = new int[2 * INITIAL_CAPACITY];
+        // States on the path of the last added word which are not registered yet.
+        // Each of them has registered children only, apart from its last child
+        // which is the next state on the path.
+        private int[] pathMask;
+        private int[][] pathTarget;
+        private boolean[] pathTerminal;
+
+        Dawg(String[] sorted) {
+            Arrays.fill(register, NONE);
+            int maxLength = 0;
+            for (String word : sorted) {
+                maxLength = Math.max(maxLength, word.length());
+            }
+            pathMask = new int[maxLength + 1];
+            pathTarget = new int[maxLength + 1][R];
+            pathTerminal = new boolean[maxLength + 1];
+
+            String previous = "";
+            for (String word : sorted) {
+                if (word.equals(previous)) continue;
+                int prefix = 0;
+                while (prefix < previous.length() && prefix < word.length()
+                        && previous.charAt(prefix) == word.charAt(prefix)) {
+                    prefix++;
+                }
+                // Suffix of the previous word can no longer change
+                registerPath(previous, prefix);
+                for (int d = prefix + 1; d <= word.length(); d++) {
+                    pathMask[d] = 0;
+                    pathTerminal[d] = false;
+                }
+                pathTerminal[word.length()] = true;
+                previous = word;
+            }
+            registerPath(previous, 0);
+            int root = registerState(0);
+
+            // Children are registered before their parents, so counting words in
+            // order of ids sees every child before the state linking to it
+            int[] count = new int[states];
+            offset = new int[edges];
+            for (int x = 0; x < states; x++) {
+                int words = isTerminal(x) ? 1 : 0;
+                for (int i = first[x]; i < first[x] + Integer.bitCount(mask[x]); i++) {
+                    offset[i] = words;
+                    words += count[target[i]];
+                }
+                count[x] = words;
+            }
+            size = count[root];
+
+            // Renumber so that root gets id ROOT
+            for (int i = 0; i < edges; i++) {
+                if (target[i] == root) target[i] = ROOT;
+                else if (target[i] == ROOT) target[i] = root;
+            }
+            swap(mask, root, ROOT);
+            swap(first, root, ROOT);
+            boolean rootTerminal = isTerminal(root);
+            setTerminal(root, isTerminal(ROOT));
+            setTerminal(ROOT, rootTerminal);
+
+            mask = Arrays.copyOf(mask, states);
+            first = Arrays.copyOf(first, states);
+            target = Arrays.copyOf(target, edges);
+            register = null;
+            pathMask = null;
+            pathTarget = null;
+            pathTerminal = null;
+        }
+
+        // Registers path states of word deeper than prefix, linking each one to its parent
+        private void registerPath(String word, int prefix) {
+            for (int d = word.length(); d > prefix; d--) {
+                int c = word.charAt(d - 1) - OFFSET;
+                pathTarget[d - 1][Integer.bitCount(pathMask[d - 1])] = registerState(d);
+                pathMask[d - 1] |= 1 << c;
             }
-            return false;
         }
 
+        // Returns registered state equivalent to the path state at depth d,
+        // registering it if there is none yet
+        private int registerState(int d) {
+            int count = Integer.bitCount(pathMask[d]);
+            if (states == mask.length) {
+                mask = Arrays.copyOf(mask, 2 * states);
+                first = Arrays.copyOf(first, 2 * states);
+                terminal = Arrays.copyOf(terminal, 2 * terminal.length);
+            }
+            if (edges + count > target.length) {
+                target = Arrays.copyOf(target, Math.max(2 * target.length, edges + count));
+            }
+            // Candidate is written into the next free slot and only kept if it
+            // turns out to be new
+            int x = states;
+            mask[x] = pathMask[d];
+            first[x] = edges;
+            System.arraycopy(pathTarget[d], 0, target, edges, count);
+            setTerminal(x, pathTerminal[d]);
+
+            int slot = hash(x) & (register.length - 1);
+            while (register[slot] != NONE) {
+                if (equivalent(register[slot], x)) return register[slot];
+                slot = (slot + 1) & (register.length - 1);
+            }
+            register[slot] = x;
+            states++;
+            edges += count;
+            if (2 * states > register.length) {
+                rehash(2 * register.length);
+            }
+            return x;
+        }
+
+        private int hash(int x) {
+            int h = 31 * mask[x] + (isTerminal(x) ? 1 : 0);
+            for (int i = first[x]; i < first[x] + Integer.bitCount(mask[x]); i++) {
+                h = 31 * h + target[i];
+            }
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private boolean equivalent(int x, int y) {
+            if (mask[x] != mask[y] || isTerminal(x) != isTerminal(y)) return false;
+            for (int i = 0; i < Integer.bitCount(mask[x]); i++) {
+                if (target[first[x] + i] != target[first[y] + i]) return false;
+            }
+            return true;
+        }
+
+        private void rehash(int capacity) {
+            register = new int[capacity];
+            Arrays.fill(register, NONE);
+            for (int x = 0; x < states; x++) {
+                int slot = hash(x) & (capacity - 1);
+                while (register[slot] != NONE) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                register[slot] = x;
+            }
+        }
+
+        private boolean isTerminal(int x) {
+            return (terminal[x >>> 6] & (1L << x)) != 0;
+        }
+
+        private void setTerminal(int x, boolean value) {
+            if (value) terminal[x >>> 6] |= 1L << x;
+            else terminal[x >>> 6] &= ~(1L << x);
+        }
+
+        private static void swap(int[] a, int i, int j) {
+            int temp = a[i];
+            a[i] = a[j];
+            a[j] = temp;
+        }
+
+        @Override
+        public int next(int x, int c) {
+            int bit = 1 << c;
+            if ((mask[x] & bit) == 0) return NONE;
+            return target[first[x] + Integer.bitCount(mask[x] & (bit - 1))];
+        }
+
+        @Override
+        public int score(int x, int length) {
+            return isTerminal(x) ? BoggleSolver.score(length) : NO_WORD;
+        }
+
+        @Override
+        public int idCount() {
+            return size;
+        }
+
+        @Override
+        public int rank(int x, int c) {
+            return offset[first[x] + Integer.bitCount(mask[x] & ((1 << c) - 1))];
+        }
+
+        @Override
+        public int wordId(int x, int rank) {
+            return rank;
+        }
     }
-}
\ No newline at end of file
+}
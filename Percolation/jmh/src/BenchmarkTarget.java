@@ -0,0 +1,42 @@
+import bench.Target;
+
+// Implementation of bench.Target on top of the percolation sources
+public class BenchmarkTarget implements Target {
+	private Percolation percolated;
+
+	@Override
+	public int trial(int n, int[] order) {
+		Percolation p = new Percolation(n);
+		int opened = 0;
+		while (!p.percolates()) {
+			p.open(order[opened++]);
+		}
+		return opened;
+	}
+
+	@Override
+	public int openAll(int n, int[] order) {
+		Percolation p = new Percolation(n);
+		p.open(order);
+		return p.numberOfOpenSites();
+	}
+
+	@Override
+	public void prepareQueries(int n, int[] order) {
+		percolated = new Percolation(n);
+		for (int i = 0; !percolated.percolates(); i++) {
+			percolated.open(order[i]);
+		}
+	}
+
+	@Override
+	public boolean isFull(int row, int col) {
+		return percolated.isFull(row, col);
+	}
+
+	@Override
+	public double stats(int n, int trials, long seed, int parallelism) {
+		PercolationStats stats = new PercolationStats(n, trials, seed, parallelism);
+		return stats.confidenceLo() + stats.confidenceHi();
+	}
+}
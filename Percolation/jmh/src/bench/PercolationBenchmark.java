@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Costs of Percolation operations on an n-by-n grid. Sites are opened in a
+// fixed random order, so runs are comparable across changes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PercolationBenchmark {
+	@Param({"100", "1000", "5000"})
+	private int n;
+	private Target target;
+	// Random permutation of all sites
+	private int[] order;
+	private int next;
+
+	@Setup
+	public void setup() {
+		target = Target.load();
+		SplittableRandom random = new SplittableRandom(42);
+		order = new int[n * n];
+		for (int i = 0; i < order.length; i++) {
+			int j = random.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+		target.prepareQueries(n, order);
+	}
+
+	// One trial of PercolationStats without drawing random numbers: opens
+	// sites and asks percolates after every open until the grid percolates
+	@Benchmark
+	public int trial() {
+		return target.trial(n, order);
+	}
+
+	// Opens every site of the grid
+	@Benchmark
+	public int openAll() {
+		return target.openAll(n, order);
+	}
+
+	// Single isFull query on a grid at its threshold
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public boolean isFull() {
+		int site = order[next];
+		next = next + 1 == order.length ? 0 : next + 1;
+		return target.isFull(site / n + 1, site % n + 1);
+	}
+}
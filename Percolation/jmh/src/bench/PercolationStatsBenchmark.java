@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PercolationStats end to end: all trials and the statistics over them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PercolationStatsBenchmark {
+	private static final long SEED = 42;
+
+	@Param({"100", "1000"})
+	private int n;
+	@Param({"100"})
+	private int trials;
+	private Target target;
+
+	@Setup
+	public void setup() {
+		target = Target.load();
+	}
+
+	@Benchmark
+	public double sequential() {
+		return target.stats(n, trials, SEED, 1);
+	}
+
+	// Trials on all available cores
+	@Benchmark
+	public double parallel() {
+		return target.stats(n, trials, SEED, Runtime.getRuntime().availableProcessors());
+	}
+}
@@ -0,0 +1,34 @@
+package bench;
+
+// Operations of the percolation sources which benchmarks measure. JMH does not
+// accept benchmarks in the default package and classes of the default package
+// cannot be imported from any other, so the sources are reached through this
+// interface implemented by the default package class BenchmarkTarget. There
+// is a single implementation, calls through it are inlined by the JIT.
+public interface Target {
+	// Opens sites of an n-by-n Percolation in given order until it
+	// percolates, returns the number of opened sites
+	int trial(int n, int[] order);
+
+	// Opens all sites of an n-by-n Percolation in given order, returns the
+	// number of open sites
+	int openAll(int n, int[] order);
+
+	// Opens sites of an n-by-n Percolation in given order until it percolates
+	// and keeps it for isFull
+	void prepareQueries(int n, int[] order);
+
+	boolean isFull(int row, int col);
+
+	// Runs PercolationStats(n, trials, seed, parallelism), returns the sum of
+	// confidence bounds
+	double stats(int n, int trials, long seed, int parallelism);
+
+	static Target load() {
+		try {
+			return (Target) Class.forName("BenchmarkTarget").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("BenchmarkTarget is missing from the class path", e);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Percolation whose sites may be opened by many threads at once without a lock.
+//
+// Built on a CAS based union-find whose parent link and state bits of a site
+// share one long, so a root's bits and the fact that it is a root are always
+// read and changed together. find never blocks (path halving only ever points
+// a site to one of its ancestors, failed CASes are simply ignored). Roots are
+// linked in order of a fixed pseudo random priority of their indices, so links
+// never form a cycle and trees stay shallow without keeping ranks.
+//
+// Top and bottom bits of a component live in its root. Before a root is
+// linked under another component its bits are ORed into that component's
+// root, and the link itself is a CAS expecting the bits to be unchanged, so
+// at every moment the root of a component holds the bits of everything linked
+// below it. Hence once isFull returns true for a site, it returns true for it
+// ever after, and the same holds for percolates. An open is made of several
+// steps, a query running concurrently with it may see some of its connections
+// and not others; every query started after an open returns sees all of them.
+public class ConcurrentPercolation {
+	private static final long OPEN = 1;
+	private static final long TOP = 2;
+	private static final long BOTTOM = 4;
+	private static final long BITS = OPEN | TOP | BOTTOM;
+	// Parent of a site plus one is kept above the state bits, zero for roots.
+	// This way a new array already describes all sites as closed roots.
+	private static final int LINK_SHIFT = 3;
+
+	// Parent link and state bits of every site. OPEN is kept for every site,
+	// TOP and BOTTOM are only meaningful for roots.
+	private final AtomicLongArray node;
+	// Holds matrix's dimension. Used to transform matrix coordinates
+	// to array index.
+	private final int dim;
+	private final LongAdder openSites = new LongAdder();
+	private volatile boolean percolates;
+
+	public ConcurrentPercolation(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n should be positive number");
+		}
+		if ((long) n * n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("n is too large");
+		}
+		dim = n;
+		node = new AtomicLongArray(n * n);
+	}
+
+	public void open(int row, int col) {
+		int site = getCoord(row, col);
+		// Open site in first row is connected to top and in nth row to bottom
+		long bits = OPEN;
+		if (row == 1) {
+			bits |= TOP;
+		}
+		if (row == dim) {
+			bits |= BOTTOM;
+		}
+		// Only one of the threads opening the same site gets past this point
+		if (!node.compareAndSet(site, 0, bits)) {
+			return;
+		}
+		openSites.increment();
+		if ((bits & (TOP | BOTTOM)) == (TOP | BOTTOM)) {
+			percolates = true;
+		}
+
+		// Connect to open neighbours. A neighbour opened concurrently either
+		// sees this site open or is seen open here, so the pair gets connected
+		// by at least one of the two threads.
+		if (row > 1 && isOpen(site - dim)) {
+			union(site - dim, site);
+		}
+		if (row < dim && isOpen(site + dim)) {
+			union(site + dim, site);
+		}
+		if (col > 1 && isOpen(site - 1)) {
+			union(site - 1, site);
+		}
+		if (col < dim && isOpen(site + 1)) {
+			union(site + 1, site);
+		}
+	}
+
+	public boolean isOpen(int row, int col) {
+		return isOpen(getCoord(row, col));
+	}
+
+	public boolean isFull(int row, int col) {
+		int site = getCoord(row, col);
+		if (!isOpen(site)) {
+			return false;
+		}
+		while (true) {
+			// Bits are read together with the proof that the site is a root
+			long word = node.get(find(site));
+			if (isRoot(word)) {
+				return (word & TOP) != 0;
+			}
+			site = parentOf(word);
+		}
+	}
+
+	public int numberOfOpenSites() {
+		return openSites.intValue();
+	}
+
+	public boolean percolates() {
+		return percolates;
+	}
+
+	private boolean isOpen(int site) {
+		return (node.get(site) & OPEN) != 0;
+	}
+
+	private static boolean isRoot(long word) {
+		return word >>> LINK_SHIFT == 0;
+	}
+
+	private static int parentOf(long word) {
+		return (int) (word >>> LINK_SHIFT) - 1;
+	}
+
+	private static long link(int parent, long word) {
+		return (long) (parent + 1) << LINK_SHIFT | word & BITS;
+	}
+
+	// Returns root of site's component, halving the path on the way. The site
+	// returned may stop being a root at any time.
+	private int find(int site) {
+		while (true) {
+			long word = node.get(site);
+			if (isRoot(word)) {
+				return site;
+			}
+			int next = parentOf(word);
+			long nextWord = node.get(next);
+			if (isRoot(nextWord)) {
+				return next;
+			}
+			// Grandparent is an ancestor forever, losing the race changes nothing
+			node.compareAndSet(site, word, link(parentOf(nextWord), word));
+			site = parentOf(nextWord);
+		}
+	}
+
+	private void union(int site1, int site2) {
+		while (true) {
+			int root1 = find(site1);
+			int root2 = find(site2);
+			if (root1 == root2) {
+				return;
+			}
+			if (priority(root1) > priority(root2)) {
+				int temp = root1;
+				root1 = root2;
+				root2 = temp;
+			}
+			long word = node.get(root1);
+			if (!isRoot(word)) {
+				continue;
+			}
+			// root2's component gets root1's bits before it gets root1. If
+			// root1 gains a bit in between, the CAS fails and all is repeated.
+			// root2 may meanwhile go under a root of higher priority, which
+			// still is a valid parent.
+			addBits(root2, word & (TOP | BOTTOM));
+			if (node.compareAndSet(root1, word, link(root2, word))) {
+				return;
+			}
+		}
+	}
+
+	// ORs bits into the root of site's component
+	private void addBits(int site, long bits) {
+		if (bits == 0) {
+			return;
+		}
+		while (true) {
+			int root = find(site);
+			long word = node.get(root);
+			if (!isRoot(word)) {
+				continue;
+			}
+			long updated = word | bits;
+			if (updated == word || node.compareAndSet(root, word, updated)) {
+				if ((updated & (TOP | BOTTOM)) == (TOP | BOTTOM)) {
+					percolates = true;
+				}
+				return;
+			}
+		}
+	}
+
+	// Multiplying by an odd constant is a bijection on ints, so priorities are
+	// distinct but not correlated with positions in the grid
+	private static int priority(int site) {
+		return site * 0x9E3779B9;
+	}
+
+	private int getCoord(int row, int col) {
+		if (row <= 0 || row > dim || col <= 0 || col > dim)
+			throw new IndexOutOfBoundsException("row and column must be in [1,n] range");
+		// Returns coordinates in [0, n*n) range
+		return (row - 1) * dim + col - 1;
+	}
+}
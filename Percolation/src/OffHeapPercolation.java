@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Percolation for grids too large for the Java heap. Same model as Percolation
+// but all per-site data lives outside of the heap, either in direct buffers or
+// in a memory mapped file, and sites are addressed by long indices.
+public class OffHeapPercolation {
+	// Largest n for which site indices fit into an unsigned int
+	private static final int MAX_N = 65535;
+	// Bits of the rank array. Low bits hold rank of a root, TOP and BOTTOM tell
+	// whether root's component contains an open site from first or last row.
+	private static final int RANK_MASK = 0x1F;
+	private static final int TOP = 0x20;
+	private static final int BOTTOM = 0x40;
+
+	// Union-find parent of every open site stored as unsigned int, roots point
+	// to themselves
+	private final Region parent;
+	private final Region rank;
+	// One bit per site
+	private final Region open;
+	// Holds matrix's dimension. Used to transform matrix coordinates
+	// to array index.
+	private final int dim;
+	private long openSites;
+	private boolean percolates;
+
+	// Keeps the grid in direct buffers. Their total size is about 5.1 bytes per
+	// site, which must fit into -XX:MaxDirectMemorySize.
+	public OffHeapPercolation(int n) {
+		validate(n);
+		dim = n;
+		long sites = (long) n * n;
+		try {
+			parent = new Region(4 * sites, null, 0);
+			rank = new Region(sites, null, 0);
+			open = new Region(8 * ((sites + 63) / 64), null, 0);
+		} catch (IOException e) {
+			// Direct buffers are not backed by a file
+			throw new AssertionError(e);
+		}
+	}
+
+	// Keeps the grid in the given file mapped into memory. Any previous content
+	// of the file is discarded.
+	public OffHeapPercolation(int n, Path file) throws IOException {
+		validate(n);
+		if (file == null) {
+			throw new IllegalArgumentException("file must not be null");
+		}
+		dim = n;
+		long sites = (long) n * n;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			parent = new Region(4 * sites, channel, 0);
+			rank = new Region(sites, channel, 4 * sites);
+			open = new Region(8 * ((sites + 63) / 64), channel, 5 * sites);
+		}
+	}
+
+	private static void validate(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n should be positive number");
+		}
+		if (n > MAX_N) {
+			throw new IllegalArgumentException("n must not exceed " + MAX_N);
+		}
+	}
+
+	public void open(int row, int col) {
+		long site = getCoord(row, col);
+		if (isOpen(site)) {
+			return;
+		}
+		open.putLong(8 * (site >>> 6), open.getLong(8 * (site >>> 6)) | (1L << site));
+		openSites++;
+		parent.putInt(4 * site, (int) site);
+
+		// Open site in first row is connected to top and in nth row to bottom
+		int flags = 0;
+		if (row == 1) {
+			flags |= TOP;
+		}
+		if (row == dim) {
+			flags |= BOTTOM;
+		}
+		rank.put(site, (byte) flags);
+		if (flags == (TOP | BOTTOM)) {
+			percolates = true;
+		}
+
+		// Connect to open neighbours
+		if (row > 1 && isOpen(site - dim)) {
+			union(site - dim, site);
+		}
+		if (row < dim && isOpen(site + dim)) {
+			union(site + dim, site);
+		}
+		if (col > 1 && isOpen(site - 1)) {
+			union(site - 1, site);
+		}
+		if (col < dim && isOpen(site + 1)) {
+			union(site + 1, site);
+		}
+	}
+
+	public boolean isOpen(int row, int col) {
+		return isOpen(getCoord(row, col));
+	}
+
+	public boolean isFull(int row, int col) {
+		long site = getCoord(row, col);
+		return isOpen(site) && (rank.get(find(site)) & TOP) != 0;
+	}
+
+	public long numberOfOpenSites() {
+		return openSites;
+	}
+
+	public boolean percolates() {
+		return percolates;
+	}
+
+	private boolean isOpen(long site) {
+		return (open.getLong(8 * (site >>> 6)) & (1L << site)) != 0;
+	}
+
+	private long parentOf(long site) {
+		return Integer.toUnsignedLong(parent.getInt(4 * site));
+	}
+
+	// Returns root of site's component, halving the path on the way
+	private long find(long site) {
+		long next = parentOf(site);
+		while (next != site) {
+			long grandparent = parentOf(next);
+			parent.putInt(4 * site, (int) grandparent);
+			site = grandparent;
+			next = parentOf(site);
+		}
+		return site;
+	}
+
+	// Merges components of two open sites by rank
+	private void union(long site1, long site2) {
+		long root1 = find(site1);
+		long root2 = find(site2);
+		if (root1 == root2) {
+			return;
+		}
+		int state1 = rank.get(root1);
+		int state2 = rank.get(root2);
+		if ((state1 & RANK_MASK) < (state2 & RANK_MASK)) {
+			long temp = root1;
+			root1 = root2;
+			root2 = temp;
+			int tempState = state1;
+			state1 = state2;
+			state2 = tempState;
+		}
+		parent.putInt(4 * root2, (int) root1);
+		int flags = (state1 | state2) & (TOP | BOTTOM);
+		int newRank = state1 & RANK_MASK;
+		if (newRank == (state2 & RANK_MASK)) {
+			newRank++;
+		}
+		rank.put(root1, (byte) (flags | newRank));
+		if (flags == (TOP | BOTTOM)) {
+			percolates = true;
+		}
+	}
+
+	private long getCoord(int row, int col) {
+		if (row <= 0 || row > dim || col <= 0 || col > dim)
+			throw new IndexOutOfBoundsException("row and column must be in [1,n] range");
+		// Returns coordinates in [0, n*n) range
+		return (long) (row - 1) * dim + col - 1;
+	}
+
+	// Zero initialized off-heap byte array of arbitrary length. A single
+	// ByteBuffer is limited to 2GB, so the array is split into chunks of 1GB.
+	// Ints and longs are only accessed at offsets aligned to their size and
+	// therefore never span two chunks.
+	private static class Region {
+		private static final int CHUNK_BITS = 30;
+		private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+		private final ByteBuffer[] chunks;
+
+		// Allocates direct buffers if channel is null, otherwise maps the
+		// channel's bytes starting at position
+		Region(long length, FileChannel channel, long position) throws IOException {
+			chunks = new ByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				int size = (int) Math.min(CHUNK_MASK + 1, length - ((long) i << CHUNK_BITS));
+				ByteBuffer chunk = channel == null ? ByteBuffer.allocateDirect(size)
+						: channel.map(FileChannel.MapMode.READ_WRITE, position + ((long) i << CHUNK_BITS), size);
+				chunks[i] = chunk.order(ByteOrder.nativeOrder());
+			}
+		}
+
+		byte get(long offset) {
+			return chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & CHUNK_MASK));
+		}
+
+		void put(long offset, byte value) {
+			chunks[(int) (offset >>> CHUNK_BITS)].put((int) (offset & CHUNK_MASK), value);
+		}
+
+		int getInt(long offset) {
+			return chunks[(int) (offset >>> CHUNK_BITS)].getInt((int) (offset & CHUNK_MASK));
+		}
+
+		void putInt(long offset, int value) {
+			chunks[(int) (offset >>> CHUNK_BITS)].putInt((int) (offset & CHUNK_MASK), value);
+		}
+
+		long getLong(long offset) {
+			return chunks[(int) (offset >>> CHUNK_BITS)].getLong((int) (offset & CHUNK_MASK));
+		}
+
+		void putLong(long offset, long value) {
+			chunks[(int) (offset >>> CHUNK_BITS)].putLong((int) (offset & CHUNK_MASK), value);
+		}
+	}
+}
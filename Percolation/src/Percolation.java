@@ -1,138 +1,303 @@
-import edu.princeton.cs.algs4.WeightedQuickUnionUF;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class Percolation {
-	private WeightedQuickUnionUF percolation;
-	private WeightedQuickUnionUF union;
-	// Holds information about whether cell has been opened
-	private boolean[] grid;
+	// Bits of state array. OPEN is kept for every site, TOP and BOTTOM are only
+	// meaningful for roots and tell whether component contains an open site
+	// from first or last row.
+	private static final byte OPEN = 1;
+	private static final byte TOP = 2;
+	private static final byte BOTTOM = 4;
+
+	// Union-find over sites. For a site which is not a root holds its parent,
+	// for a root holds minus size of its component.
+	// Since top and bottom are tracked per component instead of by virtual
+	// sites, a single structure is enough: there is no backwash through a
+	// virtual bottom.
+	private int[] parent;
+	private byte[] state;
 	// Holds matrix's dimension. Used to transform matrix coordinates
 	// to array index.
 	private int dim;
-
-	// By agreement fist row is top row
-	private final int virtualTop = 0;
-	private int virtualBottom;
+	// Set once some component touches both first and last row
+	private boolean percolates;
+	private int openSites;
+	// Cluster statistics, updated by open and union, see clusterStats
+	private int clusters;
+	private int largestCluster;
+	// Number of clusters of size in [2^k, 2^(k+1)) for every k
+	private final int[] sizeHistogram = new int[32];
+	// Number of find calls, parent links they followed and the longest path
+	private long finds;
+	private long findSteps;
+	private int longestFind;
 
 	public Percolation(int n) {
 		if (n <= 0) {
 			throw new IllegalArgumentException("n should be positive number");
 		}
-		// This UF contains two additional cells: virtual top and virtual bottom
-		// which will be used to tell if system percolates
-		percolation = new WeightedQuickUnionUF(n * n + 2);
-		// This UF contains one additional cell: virtual top
-		// which will be use to tell if specific cell is full.
-		// We cannot use percolation variable because in this cause once system
-		// percolates
-		// every cell connected to the bottom row will be full (because bottom
-		// row
-		// connected to virtual bottom
-		// and virtual bottom is connected to virtual top)
-		union = new WeightedQuickUnionUF(n * n + 1);
+		if ((long) n * n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("n is too large");
+		}
 		dim = n;
-		grid = new boolean[dim * dim];
-		// By placing virtual bottom at position dim*dim + 1 we preserve
-		// natural numbering of matrix elements that is from 1 to dim*dim
-		virtualBottom = dim * dim + 1;
+		parent = new int[dim * dim];
+		state = new byte[dim * dim];
 	}
 
-	private void updateQU(int coord1, int coord2) {
-		percolation.union(coord1, coord2);
-		union.union(coord1, coord2);
+	public void open(int row, int col) {
+		openValid(getCoord(row, col), col);
 	}
 
-	public void open(int row, int col) {
-		int coord = getCoord(row, col);
-		if (!isOpen(row, col)) {
-			// getCoord returns coordinate in [1, n*n] range,
-			// therefore we must compensate for that
-			grid[coord - 1] = true;
-		} else {
-			return;
+	// Opens site with given index in [0, n*n) range. Site in row r and column
+	// c has index (r - 1) * n + c - 1.
+	public void open(int site) {
+		validateSite(site);
+		openValid(site, site % dim + 1);
+	}
+
+	// Opens sites (rows[i], cols[i]) for all i. All of them are validated
+	// first, so nothing is opened if any of them is out of range.
+	public void open(int[] rows, int[] cols) {
+		if (rows == null || cols == null || rows.length != cols.length) {
+			throw new IllegalArgumentException("rows and cols must be arrays of the same length");
+		}
+		for (int i = 0; i < rows.length; i++) {
+			getCoord(rows[i], cols[i]);
+		}
+		for (int i = 0; i < rows.length; i++) {
+			openValid((rows[i] - 1) * dim + cols[i] - 1, cols[i]);
+		}
+	}
+
+	// Opens all sites with given indices, see open(int). All of them are
+	// validated first, so nothing is opened if any of them is out of range.
+	public void open(int[] sites) {
+		if (sites == null) {
+			throw new IllegalArgumentException("sites must not be null");
+		}
+		for (int site : sites) {
+			validateSite(site);
+		}
+		for (int site : sites) {
+			openValid(site, site % dim + 1);
+		}
+	}
+
+	// Opens all sites with indices produced by the stream, see open(int[])
+	public void open(IntStream sites) {
+		if (sites == null) {
+			throw new IllegalArgumentException("sites must not be null");
 		}
+		open(sites.toArray());
+	}
 
-		// Connect open site in first row to virtual top
-		if (row == 1) {
-			updateQU(virtualTop, coord);
+	// Opens a valid site in given column. First and last rows are told by
+	// the index alone.
+	private void openValid(int site, int col) {
+		if ((state[site] & OPEN) != 0) {
+			return;
+		}
+		// Site becomes a component of size one
+		parent[site] = -1;
+		state[site] = OPEN;
+		openSites++;
+		clusters++;
+		sizeHistogram[0]++;
+		if (largestCluster == 0) {
+			largestCluster = 1;
 		}
 
-		// Connect open site in nth row to virtual bottom
-		if (row == dim) {
-			percolation.union(virtualBottom, coord);
+		// Open site in first row is connected to top and in nth row to bottom
+		boolean firstRow = site < dim;
+		boolean lastRow = site >= state.length - dim;
+		if (firstRow) {
+			state[site] |= TOP;
+		}
+		if (lastRow) {
+			state[site] |= BOTTOM;
+		}
+		if ((state[site] & (TOP | BOTTOM)) == (TOP | BOTTOM)) {
+			percolates = true;
 		}
 
 		// Connect to open bottom site if there is one
-		if (row > 1) {
-			int bottomrow = row - 1;
-			if (isOpen(bottomrow, col)) {
-				updateQU(getCoord(bottomrow, col), coord);
-			}
+		if (!firstRow && (state[site - dim] & OPEN) != 0) {
+			union(site - dim, site);
 		}
 
 		// Connect to open top site if there is one
-		if (row < dim) {
-			int toprow = row + 1;
-			if (isOpen(toprow, col)) {
-				updateQU(getCoord(toprow, col), coord);
-			}
+		if (!lastRow && (state[site + dim] & OPEN) != 0) {
+			union(site + dim, site);
 		}
 
 		// Connect to open left site is there is one
-		if (col > 1) {
-			int leftcolumn = col - 1;
-			if (isOpen(row, leftcolumn)) {
-				updateQU(getCoord(row, leftcolumn), coord);
-			}
+		if (col > 1 && (state[site - 1] & OPEN) != 0) {
+			union(site - 1, site);
 		}
 
 		// Connect to open right site if there is one
-		if (col < dim) {
-			int rightcolumn = col + 1;
-			if (isOpen(row, rightcolumn)) {
-				updateQU(getCoord(row, rightcolumn), coord);
-			}
+		if (col < dim && (state[site + 1] & OPEN) != 0) {
+			union(site + 1, site);
 		}
-
 	}
 
 	public boolean isOpen(int row, int col) {
-		// getCoord will return coordinates in [1, n*n] range.
-		// To compensate for that we shall subtract one from coordinate.
-		return grid[getCoord(row, col) - 1];
+		return (state[getCoord(row, col)] & OPEN) != 0;
 	}
 
 	public boolean isFull(int row, int col) {
-		// Cell is full if its connected to virtual top
-		return union.connected(getCoord(row, col), virtualTop);
+		// Cell is full if it is open and its component touches first row
+		int site = getCoord(row, col);
+		return (state[site] & OPEN) != 0 && (state[find(site)] & TOP) != 0;
 	}
 
 	public int numberOfOpenSites() {
-		int sites = 0;
-		for (boolean b : grid) {
-			if (b) {
-				sites++;
+		return openSites;
+	}
+
+	public boolean percolates() {
+		return percolates;
+	}
+
+	// Returns current cluster statistics. Costs the same regardless of grid
+	// size, so it may be sampled after every open.
+	public ClusterStats clusterStats() {
+		return new ClusterStats(this);
+	}
+
+	// Returns root of site's component, halving the path on the way
+	private int find(int site) {
+		int steps = 0;
+		while (parent[site] >= 0) {
+			int next = parent[site];
+			if (parent[next] >= 0) {
+				parent[site] = parent[next];
 			}
+			site = parent[site];
+			steps++;
+		}
+		finds++;
+		findSteps += steps;
+		if (steps > longestFind) {
+			longestFind = steps;
 		}
-		return sites;
+		return site;
 	}
 
-	public boolean percolates() {
-		// Check that at least one socket in bottom row
-		// is connected to virtual bottom
-		return percolation.connected(virtualBottom, virtualTop);
+	// Merges components of two open sites, smaller one goes under the larger
+	private void union(int site1, int site2) {
+		int root1 = find(site1);
+		int root2 = find(site2);
+		if (root1 == root2) {
+			return;
+		}
+		if (parent[root1] > parent[root2]) {
+			int temp = root1;
+			root1 = root2;
+			root2 = temp;
+		}
+		sizeHistogram[bucket(-parent[root1])]--;
+		sizeHistogram[bucket(-parent[root2])]--;
+		parent[root1] += parent[root2];
+		parent[root2] = root1;
+		sizeHistogram[bucket(-parent[root1])]++;
+		clusters--;
+		if (-parent[root1] > largestCluster) {
+			largestCluster = -parent[root1];
+		}
+		state[root1] |= state[root2] & (TOP | BOTTOM);
+		if ((state[root1] & (TOP | BOTTOM)) == (TOP | BOTTOM)) {
+			percolates = true;
+		}
+	}
+
+	// Index of histogram bucket holding clusters of given size
+	private static int bucket(int size) {
+		return 31 - Integer.numberOfLeadingZeros(size);
+	}
+
+	// Snapshot of cluster statistics of a grid. A cluster is a connected
+	// component of open sites.
+	public static final class ClusterStats {
+		private final int openSites;
+		private final int clusters;
+		private final int largestCluster;
+		private final int[] sizeHistogram;
+		private final long finds;
+		private final long findSteps;
+		private final int longestFind;
+
+		private ClusterStats(Percolation p) {
+			openSites = p.openSites;
+			clusters = p.clusters;
+			largestCluster = p.largestCluster;
+			sizeHistogram = p.sizeHistogram.clone();
+			finds = p.finds;
+			findSteps = p.findSteps;
+			longestFind = p.longestFind;
+		}
+
+		public int openSites() {
+			return openSites;
+		}
+
+		public int clusters() {
+			return clusters;
+		}
+
+		// Number of sites in the largest cluster, 0 if no site is open
+		public int largestCluster() {
+			return largestCluster;
+		}
+
+		// Element k is the number of clusters with size in [2^k, 2^(k+1))
+		public int[] sizeHistogram() {
+			return sizeHistogram.clone();
+		}
+
+		// Number of find operations since the grid was created
+		public long finds() {
+			return finds;
+		}
+
+		// Total number of parent links followed by all finds
+		public long findSteps() {
+			return findSteps;
+		}
+
+		// Most parent links followed by a single find
+		public int longestFind() {
+			return longestFind;
+		}
+
+		public double meanFindLength() {
+			return finds == 0 ? 0 : (double) findSteps / finds;
+		}
+
+		@Override
+		public String toString() {
+			return "open=" + openSites + " clusters=" + clusters + " largest=" + largestCluster
+					+ " sizes=" + Arrays.toString(sizeHistogram) + " finds=" + finds
+					+ " meanFind=" + meanFindLength() + " longestFind=" + longestFind;
+		}
 	}
 
 	public static void main(String[] args) {
 		Percolation p = new Percolation(2);
 		p.open(1, 1);
 		p.open(2, 1);
-		System.out.println("Percolates: " + p.numberOfOpenSites());
+		System.out.println("Open sites: " + p.numberOfOpenSites() + ", percolates: " + p.percolates());
+	}
+
+	private void validateSite(int site) {
+		if (site < 0 || site >= state.length)
+			throw new IndexOutOfBoundsException("site must be in [0,n*n) range");
 	}
 
 	private int getCoord(int row, int col) {
 		if (row <= 0 || row > dim || col <= 0 || col > dim)
 			throw new IndexOutOfBoundsException("row and column must be in [1,n] range");
-		// Returns coordinates in [1, n*n] range
-		return (row - 1) * dim + col;
+		// Returns coordinates in [0, n*n) range
+		return (row - 1) * dim + col - 1;
 	}
 }
@@ -1,9 +1,27 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.StdRandom;
 import edu.princeton.cs.algs4.StdStats;
 
 public class PercolationStats {
-	// Holds experiment results
+	// Relative binomial weight below which spanningCurve ignores a term
+	private static final double EPSILON = 1e-15;
+	// Fewest trials untilWidth runs before it looks at the interval
+	private static final int MIN_TRIALS = 30;
+	// Holds experiment results, null if only running moments were kept
 	private double[] stats;
+	// Number of open sites at which each trial started to percolate, null if
+	// only running moments were kept
+	private int[] thresholds;
+	// Number of sites in the grid
+	private int sites;
 	// Number of experiment
 	private int numTrials;
 	// Caches mean and standard deviation calculations
@@ -17,16 +35,185 @@ public class PercolationStats {
 		mean = Double.NaN;
 		std = Double.NaN;
 		numTrials = trials;
+		sites = n * n;
 		stats = new double[trials];
+		thresholds = new int[trials];
 		for (int i = 0; i < trials; i++) {
-			Percolation p = new Percolation(n);
-			while (!p.percolates()) {
-				int row = StdRandom.uniform(1, n + 1);
-				int col = StdRandom.uniform(1, n + 1);
-				p.open(row, col);
-			}
-			stats[i] = (double) p.numberOfOpenSites() / (double) (n * n);
+			thresholds[i] = trial(n, StdRandom::uniform);
+			stats[i] = (double) thresholds[i] / sites;
+		}
+	}
+
+	// Runs trials on all available cores, see below
+	public PercolationStats(int n, int trials, long seed) {
+		this(n, trials, seed, Runtime.getRuntime().availableProcessors());
+	}
+
+	// Runs trials on at most parallelism threads. Every trial draws sites from
+	// its own random stream split off a generator seeded with seed in trial
+	// order, so results only depend on seed and not on the number of threads.
+	public PercolationStats(int n, int trials, long seed, int parallelism) {
+		if (n <= 0 || trials <= 0 || parallelism <= 0) {
+			throw new IllegalArgumentException();
+		}
+		mean = Double.NaN;
+		std = Double.NaN;
+		numTrials = trials;
+		sites = n * n;
+		stats = new double[trials];
+		thresholds = new int[trials];
+		SplittableRandom master = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[trials];
+		for (int i = 0; i < trials; i++) {
+			randoms[i] = master.split();
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> IntStream.range(0, trials).parallel()
+					.forEach(i -> {
+						thresholds[i] = trial(n, randoms[i]::nextInt);
+						stats[i] = (double) thresholds[i] / sites;
+					})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while running trials", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private PercolationStats(int n) {
+		sites = n * n;
+	}
+
+	// Runs untilWidth with at least MIN_TRIALS trials, see below
+	public static PercolationStats untilWidth(int n, double width, long timeBudgetMillis, long seed) {
+		return untilWidth(n, width, MIN_TRIALS, timeBudgetMillis, seed);
+	}
+
+	// Runs trials until 95% confidence interval of the threshold gets narrower
+	// than width or until timeBudgetMillis elapse, whichever comes first. The
+	// first minTrials trials are always run, also past the time budget, and
+	// only then the interval is checked: it assumes the mean is normally
+	// distributed and so is only meaningful after a few dozen trials. With few
+	// trials on small grids equal thresholds are likely and would give a zero
+	// width. Only running mean and variance (Welford) are kept, so memory does
+	// not grow with the number of trials and spanningCurve is not available.
+	// Trials are seeded as in PercolationStats(n, trials, seed).
+	public static PercolationStats untilWidth(int n, double width, int minTrials, long timeBudgetMillis, long seed) {
+		if (n <= 0 || !(width > 0) || minTrials < 2 || timeBudgetMillis < 0) {
+			throw new IllegalArgumentException();
+		}
+		PercolationStats result = new PercolationStats(n);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+		SplittableRandom master = new SplittableRandom(seed);
+		int count = 0;
+		double mean = 0;
+		// Sum of squared differences from the current mean
+		double m2 = 0;
+		while (true) {
+			SplittableRandom random = master.split();
+			double x = (double) trial(n, random::nextInt) / result.sites;
+			count++;
+			double delta = x - mean;
+			mean += delta / count;
+			m2 += delta * (x - mean);
+			if (count < minTrials) continue;
+			double halfWidth = 1.96 * Math.sqrt(m2 / count) / Math.sqrt(count);
+			if (2 * halfWidth < width || System.nanoTime() - deadline >= 0) break;
+		}
+		result.numTrials = count;
+		result.mean = mean;
+		result.std = Math.sqrt(m2 / count);
+		return result;
+	}
+
+	// Opens sites in random order until system percolates and returns number of
+	// open sites (Newman-Ziff). Instead of drawing random sites, many of which
+	// are already open once the grid fills up, the order is a permutation of all
+	// sites shuffled on the fly: k-th opened site is picked among those not
+	// opened yet. uniform(m) must return a random number in [0, m).
+	private static int trial(int n, IntUnaryOperator uniform) {
+		Percolation p = new Percolation(n);
+		int[] order = new int[n * n];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		int opened = 0;
+		while (!p.percolates()) {
+			int j = opened + uniform.applyAsInt(order.length - opened);
+			int site = order[j];
+			order[j] = order[opened];
+			order[opened++] = site;
+			p.open(site);
+		}
+		return opened;
+	}
+
+	// Returns probability that a grid whose sites are open independently with
+	// probability p[i] percolates, for every p[i].
+	// Trials give the probability R(k) that a grid with exactly k open sites
+	// percolates: fraction of trials whose threshold is at most k. Probability
+	// for p is its average weighted by binomial distribution of k.
+	public double[] spanningCurve(double[] p) {
+		if (p == null) {
+			throw new IllegalArgumentException();
+		}
+		if (thresholds == null) {
+			throw new IllegalStateException("thresholds of individual trials were not kept");
 		}
+		int[] sorted = thresholds.clone();
+		Arrays.sort(sorted);
+		double[] curve = new double[p.length];
+		for (int i = 0; i < p.length; i++) {
+			curve[i] = spanningProbability(p[i], sorted);
+		}
+		return curve;
+	}
+
+	private double spanningProbability(double p, int[] sorted) {
+		if (p <= 0) return 0;
+		if (p >= 1) return 1;
+		// Binomial weights are computed relative to the mode, tails below
+		// EPSILON are dropped
+		int mode = (int) Math.min(sites, Math.floor((sites + 1) * p));
+		double ratio = p / (1 - p);
+		double total = 0;
+		double sum = 0;
+		double weight = 1;
+		for (int k = mode; k <= sites && weight > EPSILON; k++) {
+			total += weight;
+			sum += weight * percolating(sorted, k);
+			weight *= (double) (sites - k) / (k + 1) * ratio;
+		}
+		weight = (double) mode / (sites - mode + 1) / ratio;
+		for (int k = mode - 1; k >= 0 && weight > EPSILON; k--) {
+			total += weight;
+			sum += weight * percolating(sorted, k);
+			weight *= (double) k / (sites - k + 1) / ratio;
+		}
+		return sum / total;
+	}
+
+	// Returns fraction of trials percolating with k open sites
+	private double percolating(int[] sorted, int k) {
+		int lo = 0;
+		int hi = sorted.length;
+		// Finds number of thresholds not greater than k
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] <= k) lo = mid + 1;
+			else hi = mid;
+		}
+		return (double) lo / sorted.length;
+	}
+
+	// Number of trials run
+	public int trials() {
+		return numTrials;
 	}
 
 	public double mean() {
@@ -51,6 +238,15 @@ public class PercolationStats {
 		return mean() + 1.96 * stddev() / Math.sqrt((double) numTrials);
 	}
 
+	// Usage: PercolationStats n trials [seed]
 	public static void main(String[] args) {
+		int n = Integer.parseInt(args[0]);
+		int trials = Integer.parseInt(args[1]);
+		PercolationStats stats = args.length > 2
+				? new PercolationStats(n, trials, Long.parseLong(args[2]))
+				: new PercolationStats(n, trials);
+		StdOut.println("mean                    = " + stats.mean());
+		StdOut.println("stddev                  = " + stats.stddev());
+		StdOut.println("95% confidence interval = [" + stats.confidenceLo() + ", " + stats.confidenceHi() + "]");
 	}
 }
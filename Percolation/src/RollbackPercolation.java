@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+// Percolation whose opens can be undone, so a sweep over open probability can
+// reuse one grid instead of building a new one for every point.
+//
+// Union-find links by rank and never compresses paths, therefore every open
+// changes only a few array entries, which are recorded in an undo log.
+// checkpoint() returns current position in the log and rollback(checkpoint)
+// undoes everything recorded after it. Without path compression find takes
+// O(log n) instead of nearly constant time.
+public class RollbackPercolation {
+	// Bits of state array, see Percolation
+	private static final byte OPEN = 1;
+	private static final byte TOP = 2;
+	private static final byte BOTTOM = 4;
+
+	// Kinds of log records. Every record takes RECORD ints: kind and three
+	// arguments.
+	private static final int RECORD = 4;
+	// site
+	private static final int OPENED = 0;
+	// child root, parent root, packed ranks of both roots and state of parent
+	private static final int LINKED = 1;
+	// no arguments
+	private static final int PERCOLATED = 2;
+
+	// Union-find over sites. For a site which is not a root holds its parent,
+	// for a root holds -1 - rank.
+	private final int[] parent;
+	private final byte[] state;
+	// Holds matrix's dimension. Used to transform matrix coordinates
+	// to array index.
+	private final int dim;
+	private boolean percolates;
+	private int openSites;
+	private int[] log = new int[16 * RECORD];
+	private int logSize;
+
+	public RollbackPercolation(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n should be positive number");
+		}
+		if ((long) n * n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("n is too large");
+		}
+		dim = n;
+		parent = new int[dim * dim];
+		state = new byte[dim * dim];
+	}
+
+	public void open(int row, int col) {
+		open(getCoord(row, col), row, col);
+	}
+
+	// Opens site with given index in [0, n*n) range, see Percolation.open(int)
+	public void open(int site) {
+		validateSite(site);
+		int row = site / dim + 1;
+		open(site, row, site - (row - 1) * dim + 1);
+	}
+
+	private void open(int site, int row, int col) {
+		if ((state[site] & OPEN) != 0) {
+			return;
+		}
+		parent[site] = -1;
+		state[site] = OPEN;
+		openSites++;
+		record(OPENED, site, 0, 0);
+
+		// Open site in first row is connected to top and in nth row to bottom
+		if (row == 1) {
+			state[site] |= TOP;
+		}
+		if (row == dim) {
+			state[site] |= BOTTOM;
+		}
+		checkPercolates(site);
+
+		// Connect to open neighbours
+		if (row > 1 && (state[site - dim] & OPEN) != 0) {
+			union(site - dim, site);
+		}
+		if (row < dim && (state[site + dim] & OPEN) != 0) {
+			union(site + dim, site);
+		}
+		if (col > 1 && (state[site - 1] & OPEN) != 0) {
+			union(site - 1, site);
+		}
+		if (col < dim && (state[site + 1] & OPEN) != 0) {
+			union(site + 1, site);
+		}
+	}
+
+	public boolean isOpen(int row, int col) {
+		return (state[getCoord(row, col)] & OPEN) != 0;
+	}
+
+	public boolean isFull(int row, int col) {
+		int site = getCoord(row, col);
+		return (state[site] & OPEN) != 0 && (state[find(site)] & TOP) != 0;
+	}
+
+	public int numberOfOpenSites() {
+		return openSites;
+	}
+
+	public boolean percolates() {
+		return percolates;
+	}
+
+	// Returns checkpoint describing the current state of the grid
+	public int checkpoint() {
+		return logSize;
+	}
+
+	// Restores the state the grid had when checkpoint was taken. Checkpoints
+	// taken after it become invalid.
+	public void rollback(int checkpoint) {
+		if (checkpoint < 0 || checkpoint > logSize || checkpoint % RECORD != 0) {
+			throw new IllegalArgumentException("invalid checkpoint");
+		}
+		while (logSize > checkpoint) {
+			logSize -= RECORD;
+			int a = log[logSize + 1];
+			int b = log[logSize + 2];
+			int c = log[logSize + 3];
+			switch (log[logSize]) {
+				case OPENED:
+					state[a] = 0;
+					parent[a] = 0;
+					openSites--;
+					break;
+				case LINKED:
+					parent[a] = -1 - (c & 0xFF);
+					parent[b] = -1 - ((c >>> 8) & 0xFF);
+					state[b] = (byte) (c >>> 16);
+					break;
+				default:
+					percolates = false;
+			}
+		}
+	}
+
+	private int find(int site) {
+		while (parent[site] >= 0) {
+			site = parent[site];
+		}
+		return site;
+	}
+
+	private void union(int site1, int site2) {
+		int root1 = find(site1);
+		int root2 = find(site2);
+		if (root1 == root2) {
+			return;
+		}
+		int rank1 = -1 - parent[root1];
+		int rank2 = -1 - parent[root2];
+		// root2 goes under root1
+		if (rank1 < rank2) {
+			int temp = root1;
+			root1 = root2;
+			root2 = temp;
+			temp = rank1;
+			rank1 = rank2;
+			rank2 = temp;
+		}
+		record(LINKED, root2, root1, rank2 | rank1 << 8 | state[root1] << 16);
+		parent[root2] = root1;
+		if (rank1 == rank2) {
+			parent[root1]--;
+		}
+		state[root1] |= state[root2] & (TOP | BOTTOM);
+		checkPercolates(root1);
+	}
+
+	private void checkPercolates(int root) {
+		if (!percolates && (state[root] & (TOP | BOTTOM)) == (TOP | BOTTOM)) {
+			percolates = true;
+			record(PERCOLATED, 0, 0, 0);
+		}
+	}
+
+	private void record(int kind, int a, int b, int c) {
+		if (logSize == log.length) {
+			log = Arrays.copyOf(log, 2 * log.length);
+		}
+		log[logSize++] = kind;
+		log[logSize++] = a;
+		log[logSize++] = b;
+		log[logSize++] = c;
+	}
+
+	private void validateSite(int site) {
+		if (site < 0 || site >= state.length)
+			throw new IndexOutOfBoundsException("site must be in [0,n*n) range");
+	}
+
+	private int getCoord(int row, int col) {
+		if (row <= 0 || row > dim || col <= 0 || col > dim)
+			throw new IndexOutOfBoundsException("row and column must be in [1,n] range");
+		// Returns coordinates in [0, n*n) range
+		return (row - 1) * dim + col - 1;
+	}
+}
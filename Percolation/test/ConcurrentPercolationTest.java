@@ -0,0 +1,109 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrentPercolationTest {
+	private static final int N = 40;
+	private static final int ROUNDS = 100;
+	private static final int OPENERS = 3;
+	private static final int OBSERVERS = 2;
+
+	// Opens sites from several threads while other threads keep scanning the
+	// grid. A site seen full must never be seen not full afterwards, the same
+	// for percolates, and the final grid must match sequential Percolation.
+	@Test
+	void fullnessNeverGoesBackWhileOpening() throws InterruptedException {
+		SplittableRandom random = new SplittableRandom(17);
+		for (int round = 0; round < ROUNDS; round++) {
+			int[] order = shuffledSites(random);
+			// Leaves some sites closed so that not every site ends up full
+			int opened = order.length * 3 / 5;
+			ConcurrentPercolation grid = new ConcurrentPercolation(N);
+			AtomicReference<String> failure = new AtomicReference<>();
+			AtomicBoolean done = new AtomicBoolean();
+			CountDownLatch start = new CountDownLatch(1);
+
+			Thread[] openers = new Thread[OPENERS];
+			for (int t = 0; t < OPENERS; t++) {
+				int first = t;
+				openers[t] = new Thread(() -> {
+					await(start);
+					for (int i = first; i < opened; i += OPENERS) {
+						grid.open(order[i] / N + 1, order[i] % N + 1);
+						if (i % 64 == first) {
+							Thread.yield();
+						}
+					}
+				});
+			}
+			Thread[] observers = new Thread[OBSERVERS];
+			for (int t = 0; t < OBSERVERS; t++) {
+				observers[t] = new Thread(() -> {
+					boolean[] seenFull = new boolean[N * N];
+					boolean seenPercolating = false;
+					await(start);
+					boolean last = false;
+					while (failure.get() == null && !last) {
+						// One more scan after opening finished
+						last = done.get();
+						for (int site = 0; site < N * N; site++) {
+							boolean full = grid.isFull(site / N + 1, site % N + 1);
+							if (seenFull[site] && !full) {
+								failure.compareAndSet(null, "site " + site + " went from full to not full");
+							}
+							seenFull[site] |= full;
+						}
+						boolean percolating = grid.percolates();
+						if (seenPercolating && !percolating) {
+							failure.compareAndSet(null, "percolates went from true to false");
+						}
+						seenPercolating |= percolating;
+					}
+				});
+			}
+			for (Thread thread : openers) thread.start();
+			for (Thread thread : observers) thread.start();
+			start.countDown();
+			for (Thread thread : openers) thread.join();
+			done.set(true);
+			for (Thread thread : observers) thread.join();
+			assertNull(failure.get(), "round " + round);
+
+			Percolation expected = new Percolation(N);
+			for (int i = 0; i < opened; i++) {
+				expected.open(order[i]);
+			}
+			assertEquals(expected.numberOfOpenSites(), grid.numberOfOpenSites());
+			assertEquals(expected.percolates(), grid.percolates());
+			for (int row = 1; row <= N; row++) {
+				for (int col = 1; col <= N; col++) {
+					assertEquals(expected.isFull(row, col), grid.isFull(row, col), "site " + row + " " + col);
+				}
+			}
+		}
+	}
+
+	private static int[] shuffledSites(SplittableRandom random) {
+		int[] order = new int[N * N];
+		for (int i = 0; i < order.length; i++) {
+			int j = random.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+		return order;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
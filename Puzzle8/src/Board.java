@@ -3,29 +3,77 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 public class Board {
-    private final int[] board;
+    // Boards up to this dimension keep their tiles packed into a long,
+    // 4 bits per tile
+    static final int MAX_PACKED = 4;
+    // Packed goal board for every dimension up to MAX_PACKED
+    private static final long[] GOALS = new long[MAX_PACKED + 1];
+
+    static {
+        for (int n = 1; n <= MAX_PACKED; n++) {
+            for (int i = 0; i < n * n - 1; i++) {
+                GOALS[n] |= (long) (i + 1) << (4 * i);
+            }
+        }
+    }
+
     private final int N;
+    private final Geometry geometry;
+    // Tiles of a board of dimension up to MAX_PACKED, tile at position i is
+    // held in bits [4i, 4i + 4)
+    private final long packed;
+    // Tiles of a larger board, one byte per tile, or two (high byte first)
+    // if tiles do not fit into a byte. Null if tiles are packed.
+    private final byte[] cells;
+    // Position of the empty cell
+    private final int blank;
     private int manhattan;
 
     public Board(int[][] blocks) {
         N = blocks.length;
-        board = new int[N * N];
+        geometry = Geometry.of(N);
+        long packedTiles = 0;
+        byte[] cellTiles = null;
+        if (N > MAX_PACKED) {
+            cellTiles = new byte[N * N > 256 ? 2 * N * N : N * N];
+        }
+        int zero = 0;
         for (int i = 0; i < N; i++) {
             for (int j = 0; j < N; j++) {
-                board[i * N + j] = blocks[i][j];
+                int tile = blocks[i][j];
+                if (tile == 0) {
+                    zero = i * N + j;
+                }
+                if (cellTiles == null) {
+                    packedTiles |= (long) tile << (4 * (i * N + j));
+                } else {
+                    setTile(cellTiles, N * N, i * N + j, tile);
+                }
             }
         }
+        packed = packedTiles;
+        cells = cellTiles;
+        blank = zero;
         manhattan = -1;
     }
 
+    private Board(Board board, long packed, byte[] cells, int blank, int manhattan) {
+        N = board.N;
+        geometry = board.geometry;
+        this.packed = packed;
+        this.cells = cells;
+        this.blank = blank;
+        this.manhattan = manhattan;
+    }
+
     public int dimension() {
         return N;
     }
 
     public int hamming() {
         int distance = 0;
-        for (int i = 0; i < board.length - 1; i++) {
-            if (board[i] != i + 1) {
+        for (int i = 0; i < N * N - 1; i++) {
+            if (tile(i) != i + 1) {
                 distance++;
             }
         }
@@ -39,14 +87,11 @@ public class Board {
             return manhattan;
         }
         int distance = 0;
-        for (int i = 0; i < N; i++) {
-            for (int j = 0; j < N; j++) {
-                // For all cell values except for 0 we simply compare its value-1 (due to array numbering)
-                // to its coordinates, since this two value must be equal. We must handle value of 0
-                // as it does not fall into logic
-                if (!(board[i * N + j] == 0 && i * N + j != board.length)) {
-                    distance += manhattanDistance(board[i * N + j] - 1, i * N + j);
-                }
+        for (int i = 0; i < N * N; i++) {
+            // Empty cell is not counted
+            int tile = tile(i);
+            if (tile != 0) {
+                distance += geometry.distance(tile, i);
             }
         }
         manhattan = distance;
@@ -54,52 +99,74 @@ public class Board {
     }
 
     public boolean isGoal() {
-        for (int i = 0; i < board.length - 1; i++) {
-            if (board[i] != i + 1) {
+        if (cells == null) {
+            return packed == GOALS[N];
+        }
+        for (int i = 0; i < N * N - 1; i++) {
+            if (tile(i) != i + 1) {
                 return false;
             }
         }
         return true;
     }
 
-    private int manhattanDistance(int currentPosition, int correctPosition) {
-        // Calculate coordinates in two dimensional plane
-        int jCurrent = currentPosition % N;
-        int jCorrect = correctPosition % N;
-        int iCurrent = currentPosition / N;
-        int iCorrect = correctPosition / N;
-        return Math.abs(iCurrent - iCorrect) + Math.abs(jCorrect - jCurrent);
+    // Returns tile at given position
+    private int tile(int position) {
+        if (cells == null) {
+            return (int) (packed >>> (4 * position)) & 0xF;
+        }
+        return tile(cells, N * N, position);
     }
 
-    private void swap(int i1, int j1, int i2, int j2, int[][] board) {
-        int temp = board[i1][j1];
-        board[i1][j1] = board[i2][j2];
-        board[i2][j2] = temp;
+    private static int tile(byte[] cells, int size, int position) {
+        if (cells.length == size) {
+            return cells[position] & 0xFF;
+        }
+        return (cells[2 * position] & 0xFF) << 8 | cells[2 * position + 1] & 0xFF;
     }
 
+    private static void setTile(byte[] cells, int size, int position, int tile) {
+        if (cells.length == size) {
+            cells[position] = (byte) tile;
+        } else {
+            cells[2 * position] = (byte) (tile >>> 8);
+            cells[2 * position + 1] = (byte) tile;
+        }
+    }
 
-    private int[][] oneDtoTwoD() {
-        int[][] newBoard = new int[N][N];
-        for (int i = 0; i < N; i++) {
-            for (int j = 0; j < N; j++) {
-                newBoard[i] = Arrays.copyOfRange(board, i * N, (i + 1) * N);
-            }
+    // Returns board with tiles at positions p and q exchanged and given
+    // manhattan distance, -1 if unknown
+    private Board swap(int p, int q, int distance) {
+        int tileP = tile(p);
+        int tileQ = tile(q);
+        int zero = blank == p ? q : blank == q ? p : blank;
+        if (cells == null) {
+            // XOR of both tiles moved into both positions exchanges them
+            long diff = tileP ^ tileQ;
+            return new Board(this, packed ^ (diff << (4 * p)) ^ (diff << (4 * q)), null, zero, distance);
         }
-        return newBoard;
+        byte[] swapped = cells.clone();
+        setTile(swapped, N * N, p, tileQ);
+        setTile(swapped, N * N, q, tileP);
+        return new Board(this, 0, swapped, zero, distance);
+    }
+
+    // Returns board where tile at given position moved into the empty cell.
+    // Only that tile changes its distance, so manhattan is updated in O(1).
+    Board move(int position) {
+        int tile = tile(position);
+        int distance = manhattan() - geometry.distance(tile, position) + geometry.distance(tile, blank);
+        return swap(blank, position, distance);
     }
 
     public Board twin() {
-        int[][] twinBoard = oneDtoTwoD();
         // We can assume that N is at least 2 otherwise there would be no board.
         // We will swap first two cells, otherwise, if one of the cells contains
         // zero we will swap last two
-        if (twinBoard[0][0] != 0 && twinBoard[0][1] != 0) {
-            swap(0, 0, 0, 1, twinBoard);
-        } else {
-            swap(N - 1, N - 1, N - 1, N - 2, twinBoard);
+        if (blank != 0 && blank != 1) {
+            return swap(0, 1, -1);
         }
-
-        return new Board(twinBoard);
+        return swap(N * N - 1, N * N - 2, -1);
     }
 
     public boolean equals(Object y) {
@@ -111,12 +178,66 @@ public class Board {
 
         if (b.N != N) return false;
 
-        for (int i = 0; i < N * N; i++) {
-            if (b.board[i] != board[i]) {
-                return false;
+        return b.packed == packed && Arrays.equals(b.cells, cells);
+    }
+
+    public int hashCode() {
+        if (cells == null) {
+            return Long.hashCode(packed);
+        }
+        return Arrays.hashCode(cells);
+    }
+
+    // Returns tiles row by row, 0 for the empty cell
+    int[] tiles() {
+        int[] tiles = new int[N * N];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = tile(i);
+        }
+        return tiles;
+    }
+
+    // Tells whether goal board can be reached from this one. Every move
+    // changes the order of tiles read row by row (the empty cell skipped) by
+    // either nothing or a cycle of N tiles, and a vertical move also changes
+    // the row of the empty cell by one. For odd N parity of the order is
+    // therefore kept, for even N the sum of its parity and the row of the
+    // empty cell is. Parity is computed from cycles of the permutation,
+    // which takes linear time unlike counting inversions.
+    boolean isSolvable() {
+        int size = N * N;
+        // Positions among tiles, empty cell skipped, of tile values 1..size-1
+        boolean[] visited = new boolean[size];
+        int[] order = new int[size - 1];
+        for (int i = 0, k = 0; i < size; i++) {
+            int tile = tile(i);
+            if (tile != 0) {
+                order[k++] = tile - 1;
             }
         }
-        return true;
+        // Permutation of m elements with c cycles is a product of m - c
+        // transpositions
+        int transpositions = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (visited[i]) {
+                continue;
+            }
+            for (int j = i; !visited[j]; j = order[j]) {
+                visited[j] = true;
+                transpositions++;
+            }
+            transpositions--;
+        }
+        if (N % 2 == 1) {
+            return transpositions % 2 == 0;
+        }
+        return (transpositions + geometry.row[blank]) % 2 == 1;
+    }
+
+    // Returns tiles packed into a long, different for different boards of the
+    // same dimension up to MAX_PACKED. Meaningless for larger boards.
+    long key() {
+        return packed;
     }
 
     private class BoardIterable implements Iterable<Board> {
@@ -134,48 +255,31 @@ public class Board {
                 // There are at most 4 possible neighbours for each board
                 boards = new Board[4];
                 numBoards = 0;
-                // First find where empty cell is located
-                int zeroPosition = 0;
-                for (int i = 0; i < N * N; i++) {
-                    if (board[i] == 0) {
-                        zeroPosition = i;
-                        break;
-                    }
-                }
-
-
-                int j = zeroPosition % N;
-                int i = zeroPosition / N;
 
+                int j = geometry.col[blank];
+                int i = geometry.row[blank];
 
                 // Can move empty space one cell top
                 if (i > 0) {
-                    addNewBoard(i, j, i - 1, j);
+                    boards[numBoards++] = move(blank - N);
                 }
 
                 // Can move empty space one cell bottom
                 if (i < N - 1) {
-                    addNewBoard(i, j, i + 1, j);
+                    boards[numBoards++] = move(blank + N);
                 }
 
                 // Can move empty space one cell left
                 if (j > 0) {
-                    addNewBoard(i, j, i, j - 1);
+                    boards[numBoards++] = move(blank - 1);
                 }
 
                 // Can move empty space one cell right
                 if (j < N - 1) {
-                    addNewBoard(i, j, i, j + 1);
+                    boards[numBoards++] = move(blank + 1);
                 }
             }
 
-            private void addNewBoard(int i, int j, int inew, int jnew) {
-                int[][] newBoard = oneDtoTwoD();
-                swap(i, j, inew, jnew, newBoard);
-                boards[numBoards] = new Board(newBoard);
-                numBoards++;
-            }
-
             @Override
             public boolean hasNext() {
                 return numBoards > 0;
@@ -191,6 +295,53 @@ public class Board {
         }
     }
 
+    // Row and column lookup tables shared by all boards of a dimension
+    static final class Geometry {
+        // Geometries of small dimensions are created once
+        private static final Geometry[] CACHE = new Geometry[16];
+
+        // Row and column of every position
+        final int[] row;
+        final int[] col;
+        // Row and column of the goal position of every tile, tile t belongs
+        // to position t - 1
+        private final int[] goalRow;
+        private final int[] goalCol;
+
+        private Geometry(int n) {
+            row = new int[n * n];
+            col = new int[n * n];
+            goalRow = new int[n * n];
+            goalCol = new int[n * n];
+            for (int i = 0; i < n * n; i++) {
+                row[i] = i / n;
+                col[i] = i % n;
+            }
+            for (int tile = 1; tile < n * n; tile++) {
+                goalRow[tile] = row[tile - 1];
+                goalCol[tile] = col[tile - 1];
+            }
+        }
+
+        static Geometry of(int n) {
+            if (n >= CACHE.length) {
+                return new Geometry(n);
+            }
+            // Racing threads may each create one, they are all the same
+            Geometry geometry = CACHE[n];
+            if (geometry == null) {
+                geometry = new Geometry(n);
+                CACHE[n] = geometry;
+            }
+            return geometry;
+        }
+
+        // Manhattan distance of tile at given position from its goal
+        int distance(int tile, int position) {
+            return Math.abs(row[position] - goalRow[tile]) + Math.abs(col[position] - goalCol[tile]);
+        }
+    }
+
     public Iterable<Board> neighbors() {
         return new BoardIterable();
     }
@@ -200,10 +351,10 @@ public class Board {
         s.append(N + "\n");
         for (int i = 0; i < N; i++) {
             for (int j = 0; j < N; j++) {
-                s.append(String.format("%2d ", board[i * N + j]));
+                s.append(String.format("%2d ", tile(i * N + j)));
             }
             s.append("\n");
         }
         return s.toString();
     }
-}
\ No newline at end of file
+}
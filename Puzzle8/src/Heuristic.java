@@ -0,0 +1,58 @@
+// Lower bound on the number of moves needed to reach the goal board, used by
+// Solver to order its search. Boards are given as their tiles row by row,
+// 0 for the empty cell.
+public interface Heuristic {
+    // Sum of manhattan distances of tiles from their goal positions, used by
+    // Solver unless told otherwise
+    Heuristic MANHATTAN = new Manhattan();
+
+    int estimate(int[] tiles, int n);
+
+    default int estimate(Board board) {
+        return estimate(board.tiles(), board.dimension());
+    }
+
+    // Returns estimate of a board after tile moved from position from into
+    // the empty cell at position to, given the estimate before the move.
+    // Tiles and where, the position of every tile, already reflect the move;
+    // where may be changed during the call but must be left as it was given.
+    // Recomputes the estimate by default.
+    default int update(int[] tiles, int[] where, int n, int estimate, int tile, int from, int to) {
+        return estimate(tiles, n);
+    }
+
+    // Tells whether boards of dimension n can be estimated
+    default boolean supports(int n) {
+        return true;
+    }
+
+    final class Manhattan implements Heuristic {
+        private Manhattan() {
+        }
+
+        @Override
+        public int estimate(int[] tiles, int n) {
+            Board.Geometry geometry = Board.Geometry.of(n);
+            int distance = 0;
+            for (int i = 0; i < tiles.length; i++) {
+                if (tiles[i] != 0) {
+                    distance += geometry.distance(tiles[i], i);
+                }
+            }
+            return distance;
+        }
+
+        // Boards keep their manhattan distance up to date themselves
+        @Override
+        public int estimate(Board board) {
+            return board.manhattan();
+        }
+
+        // Only the moved tile changes its distance
+        @Override
+        public int update(int[] tiles, int[] where, int n, int estimate, int tile, int from, int to) {
+            Board.Geometry geometry = Board.Geometry.of(n);
+            return estimate - geometry.distance(tile, from) + geometry.distance(tile, to);
+        }
+    }
+}
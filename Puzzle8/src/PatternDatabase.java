@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Disjoint additive pattern databases. Tiles are split into disjoint patterns
+// and for every pattern a table holds, for every placement of its tiles, the
+// fewest moves of those tiles needed to bring them home while the other tiles
+// are indistinguishable. Only moves of a pattern's own tiles are counted, so
+// the values of different patterns can be added and the sum is still a lower
+// bound, usually much better than manhattan distance.
+//
+// Tables are generated by a breadth first search backwards from the goal and
+// can be written to a file, which open maps into memory instead of generating
+// them again. The file holds a header (magic, format version, dimension,
+// number of patterns and CRC32 of the rest), then for every pattern its size
+// and tiles as ints, then tables of all patterns, one byte per entry.
+public final class PatternDatabase implements Heuristic {
+    private static final int MAGIC = 0x50444231;
+    // Must be increased on every change of the file layout
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 5 * Integer.BYTES;
+    // Largest dimension whose positions fit into bits of a long
+    private static final int MAX_N = 8;
+    // Marks table entries not reached by generation yet
+    private static final int UNREACHED = 0xFF;
+
+    private final int n;
+    // Tiles of every pattern
+    private final int[][] patterns;
+    // Pattern of every tile, -1 for tiles in no pattern
+    private final int[] patternOf;
+    // Table of every pattern, see index
+    private final ByteBuffer[] tables;
+
+    private PatternDatabase(int n, int[][] patterns, ByteBuffer[] tables) {
+        this.n = n;
+        this.patterns = patterns;
+        this.tables = tables;
+        patternOf = new int[n * n];
+        Arrays.fill(patternOf, -1);
+        for (int p = 0; p < patterns.length; p++) {
+            for (int tile : patterns[p]) {
+                patternOf[tile] = p;
+            }
+        }
+    }
+
+    // Generates tables for the default patterns of n: 4-4 for 3x3, 6-6-3 for
+    // 4x4 and 5-5-5-5-4 for 5x5 boards
+    public static PatternDatabase generate(int n) {
+        switch (n) {
+            case 3:
+                return generate(3, new int[][] {{1, 2, 3, 4}, {5, 6, 7, 8}});
+            case 4:
+                return generate(4, new int[][] {{1, 5, 6, 9, 10, 13}, {7, 8, 11, 12, 14, 15}, {2, 3, 4}});
+            case 5:
+                return generate(5, new int[][] {{1, 2, 6, 7, 11}, {3, 4, 5, 8, 9},
+                        {12, 16, 17, 21, 22}, {10, 13, 14, 15, 18}, {19, 20, 23, 24}});
+            default:
+                throw new IllegalArgumentException("no default patterns for dimension " + n);
+        }
+    }
+
+    // Generates tables for given disjoint patterns of tiles of n-by-n boards.
+    // Tiles left out of all patterns are not counted.
+    public static PatternDatabase generate(int n, int[][] patterns) {
+        if (n < 2 || n > MAX_N) {
+            throw new IllegalArgumentException("dimension must be in [2," + MAX_N + "] range");
+        }
+        if (patterns == null) {
+            throw new IllegalArgumentException("patterns must not be null");
+        }
+        int[][] copy = new int[patterns.length][];
+        boolean[] used = new boolean[n * n];
+        for (int p = 0; p < patterns.length; p++) {
+            if (patterns[p] == null || patterns[p].length == 0) {
+                throw new IllegalArgumentException("patterns must not be empty");
+            }
+            copy[p] = patterns[p].clone();
+            for (int tile : copy[p]) {
+                if (tile <= 0 || tile >= n * n || used[tile]) {
+                    throw new IllegalArgumentException("patterns must hold distinct tiles in [1," + (n * n - 1) + "] range");
+                }
+                used[tile] = true;
+            }
+        }
+        ByteBuffer[] tables = new ByteBuffer[copy.length];
+        for (int p = 0; p < copy.length; p++) {
+            tables[p] = ByteBuffer.wrap(generateTable(n, copy[p]));
+        }
+        return new PatternDatabase(n, copy, tables);
+    }
+
+    // Searches placements of pattern tiles together with the empty cell
+    // backwards from the goal. Moving the empty cell over a tile outside of the
+    // pattern costs nothing, so every level of the search is first closed over
+    // free moves before the next one starts. Entry of a placement of pattern
+    // tiles is the least level among all positions of the empty cell.
+    private static byte[] generateTable(int n, int[] pattern) {
+        int size = n * n;
+        int k = pattern.length;
+        long states = permutations(size, k + 1);
+        if (states > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("pattern of " + k + " tiles is too large");
+        }
+        Board.Geometry geometry = Board.Geometry.of(n);
+        byte[] distance = new byte[(int) states];
+        Arrays.fill(distance, (byte) UNREACHED);
+
+        // Positions of pattern tiles followed by position of the empty cell
+        int[] positions = new int[k + 1];
+        for (int i = 0; i < k; i++) {
+            positions[i] = pattern[i] - 1;
+        }
+        positions[k] = size - 1;
+        int[] current = new int[1024];
+        int currentSize = 0;
+        int[] next = new int[1024];
+        int nextSize = 0;
+        int start = index(positions, k + 1, size);
+        distance[start] = 0;
+        current[currentSize++] = start;
+
+        int[] neighbours = new int[4];
+        for (int level = 0; currentSize > 0; level++) {
+            if (level + 1 >= UNREACHED) {
+                throw new IllegalStateException("distances do not fit into a byte");
+            }
+            // Free moves append to current while it is being processed
+            for (int q = 0; q < currentSize; q++) {
+                int state = current[q];
+                if ((distance[state] & 0xFF) != level) {
+                    continue;
+                }
+                unrank(state, positions, k + 1, size);
+                int blank = positions[k];
+                int count = 0;
+                if (geometry.row[blank] > 0) neighbours[count++] = blank - n;
+                if (geometry.row[blank] < n - 1) neighbours[count++] = blank + n;
+                if (geometry.col[blank] > 0) neighbours[count++] = blank - 1;
+                if (geometry.col[blank] < n - 1) neighbours[count++] = blank + 1;
+                for (int c = 0; c < count; c++) {
+                    int cell = neighbours[c];
+                    int tile = 0;
+                    while (tile < k && positions[tile] != cell) {
+                        tile++;
+                    }
+                    int cost = tile < k ? 1 : 0;
+                    if (tile < k) {
+                        positions[tile] = blank;
+                    }
+                    positions[k] = cell;
+                    int neighbour = index(positions, k + 1, size);
+                    positions[k] = blank;
+                    if (tile < k) {
+                        positions[tile] = cell;
+                    }
+                    if ((distance[neighbour] & 0xFF) <= level + cost) {
+                        continue;
+                    }
+                    distance[neighbour] = (byte) (level + cost);
+                    if (cost == 0) {
+                        if (currentSize == current.length) {
+                            current = Arrays.copyOf(current, 2 * currentSize);
+                        }
+                        current[currentSize++] = neighbour;
+                    } else {
+                        if (nextSize == next.length) {
+                            next = Arrays.copyOf(next, 2 * nextSize);
+                        }
+                        next[nextSize++] = neighbour;
+                    }
+                }
+            }
+            int[] temp = current;
+            current = next;
+            currentSize = nextSize;
+            next = temp;
+            nextSize = 0;
+        }
+
+        // Index of pattern tiles and the empty cell is index of pattern tiles
+        // times number of free positions plus rank of the empty cell
+        int free = size - k;
+        byte[] table = new byte[(int) permutations(size, k)];
+        for (int i = 0; i < table.length; i++) {
+            int min = UNREACHED;
+            for (int j = i * free; j < (i + 1) * free; j++) {
+                min = Math.min(min, distance[j] & 0xFF);
+            }
+            table[i] = (byte) min;
+        }
+        return table;
+    }
+
+    // Number of ways to place k distinct tiles on size positions
+    private static long permutations(int size, int k) {
+        long count = 1;
+        for (int i = 0; i < k; i++) {
+            count *= size - i;
+        }
+        return count;
+    }
+
+    // Returns index of the first k positions among all placements of k
+    // distinct tiles: every position is replaced by its rank among positions
+    // not taken by the earlier ones and ranks form a mixed radix number
+    private static int index(int[] positions, int k, int size) {
+        int index = 0;
+        long taken = 0;
+        for (int i = 0; i < k; i++) {
+            int position = positions[i];
+            int rank = position - Long.bitCount(taken & ((1L << position) - 1));
+            taken |= 1L << position;
+            index = index * (size - i) + rank;
+        }
+        return index;
+    }
+
+    // Inverse of index
+    private static void unrank(int index, int[] positions, int k, int size) {
+        for (int i = k - 1; i >= 0; i--) {
+            positions[i] = index % (size - i);
+            index /= size - i;
+        }
+        long taken = 0;
+        for (int i = 0; i < k; i++) {
+            // Position is the rank-th one not taken yet
+            int rank = positions[i];
+            long free = ~taken;
+            for (int r = 0; r < rank; r++) {
+                free &= free - 1;
+            }
+            int position = Long.numberOfTrailingZeros(free);
+            positions[i] = position;
+            taken |= 1L << position;
+        }
+    }
+
+    // Writes the database in the format read by open
+    public void write(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        int length = 0;
+        for (int p = 0; p < patterns.length; p++) {
+            length += Integer.BYTES * (patterns[p].length + 1) + tables[p].capacity();
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        for (int[] pattern : patterns) {
+            body.putInt(pattern.length);
+            for (int tile : pattern) {
+                body.putInt(tile);
+            }
+        }
+        for (ByteBuffer table : tables) {
+            body.put(table.duplicate().clear());
+        }
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(patterns.length).putInt((int) crc.getValue());
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) channel.write(header);
+            while (body.hasRemaining()) channel.write(body);
+        }
+    }
+
+    // Returns database whose tables are read straight from a file written by
+    // write and mapped into memory. Throws IllegalArgumentException if the
+    // file is not a database of the current format or is corrupted.
+    public static PatternDatabase open(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("not a pattern database: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a pattern database: " + file);
+        }
+        if (buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IllegalArgumentException("pattern database " + file + " has version "
+                    + buffer.getInt(Integer.BYTES) + ", expected " + VERSION);
+        }
+        int n = buffer.getInt(2 * Integer.BYTES);
+        int count = buffer.getInt(3 * Integer.BYTES);
+        if (n < 2 || n > MAX_N || count <= 0 || count >= n * n) {
+            throw new IllegalArgumentException("corrupted pattern database: " + file);
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(4 * Integer.BYTES)) {
+            throw new IllegalArgumentException("checksum mismatch in pattern database: " + file);
+        }
+
+        // Checksum matched, so the layout is trusted except for lengths
+        int[][] patterns = new int[count][];
+        int offset = HEADER_LENGTH;
+        long tablesLength = 0;
+        for (int p = 0; p < count; p++) {
+            int k = buffer.getInt(offset);
+            if (k <= 0 || k >= n * n) {
+                throw new IllegalArgumentException("corrupted pattern database: " + file);
+            }
+            patterns[p] = new int[k];
+            for (int i = 0; i < k; i++) {
+                patterns[p][i] = buffer.getInt(offset + Integer.BYTES * (i + 1));
+                if (patterns[p][i] <= 0 || patterns[p][i] >= n * n) {
+                    throw new IllegalArgumentException("corrupted pattern database: " + file);
+                }
+            }
+            offset += Integer.BYTES * (k + 1);
+            tablesLength += permutations(n * n, k);
+        }
+        if (buffer.capacity() != offset + tablesLength) {
+            throw new IllegalArgumentException("truncated pattern database: " + file);
+        }
+        ByteBuffer[] tables = new ByteBuffer[count];
+        for (int p = 0; p < count; p++) {
+            int length = (int) permutations(n * n, patterns[p].length);
+            tables[p] = buffer.duplicate().position(offset).limit(offset + length).slice();
+            offset += length;
+        }
+        return new PatternDatabase(n, patterns, tables);
+    }
+
+    public int dimension() {
+        return n;
+    }
+
+    @Override
+    public boolean supports(int n) {
+        return n == this.n;
+    }
+
+    @Override
+    public int estimate(int[] tiles, int n) {
+        int[] where = where(tiles);
+        int estimate = 0;
+        for (int p = 0; p < patterns.length; p++) {
+            estimate += value(p, where);
+        }
+        return estimate;
+    }
+
+    // Only the pattern of the moved tile changes its value
+    @Override
+    public int update(int[] tiles, int[] where, int n, int estimate, int tile, int from, int to) {
+        int p = patternOf[tile];
+        if (p < 0) {
+            return estimate;
+        }
+        int after = value(p, where);
+        where[tile] = from;
+        int before = value(p, where);
+        where[tile] = to;
+        return estimate - before + after;
+    }
+
+    // Returns position of every tile
+    private static int[] where(int[] tiles) {
+        int[] where = new int[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            where[tiles[i]] = i;
+        }
+        return where;
+    }
+
+    private int value(int p, int[] where) {
+        int[] pattern = patterns[p];
+        int size = n * n;
+        int index = 0;
+        long taken = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            int position = where[pattern[i]];
+            int rank = position - Long.bitCount(taken & ((1L << position) - 1));
+            taken |= 1L << position;
+            index = index * (size - i) + rank;
+        }
+        return tables[p].get(index) & 0xFF;
+    }
+
+    // Usage: PatternDatabase n file
+    // Generates default patterns of n-by-n boards and writes them to file
+    public static void main(String[] args) throws IOException {
+        int n = Integer.parseInt(args[0]);
+        long start = System.nanoTime();
+        PatternDatabase database = generate(n);
+        database.write(Paths.get(args[1]));
+        System.out.println("Generated in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -1,47 +1,85 @@
 import edu.princeton.cs.algs4.MinPQ;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 public class Solver {
     private final ArrayList<Board> path;
+    private final Heuristic heuristic;
     private Node solutionNode;
     private boolean solvable;
 
+    // Search algorithms the solver can use
+    public enum Engine {
+        // A* keeping every reached board, fastest while they fit into memory
+        A_STAR,
+        // Iterative deepening A*, memory proportional to the number of moves
+        IDA_STAR
+    }
+
 
     public Solver(Board initial) {
+        this(initial, Engine.A_STAR);
+    }
+
+    public Solver(Board initial, Engine engine) {
+        this(initial, engine, Heuristic.MANHATTAN);
+    }
+
+    // Searches ordered by given heuristic, which must never overestimate the
+    // number of moves to the goal for solutions to be shortest
+    public Solver(Board initial, Engine engine, Heuristic heuristic) {
         if (initial == null) {
             throw new IllegalArgumentException("initial board must not be null");
         }
+        if (engine == null) {
+            throw new IllegalArgumentException("engine must not be null");
+        }
+        if (heuristic == null || !heuristic.supports(initial.dimension())) {
+            throw new IllegalArgumentException("heuristic must support boards of dimension " + initial.dimension());
+        }
+        this.heuristic = heuristic;
 
         // Create object that will hold solution sequence
         path = new ArrayList<>();
 
 
-        // Only boards with even number of permutations are solvable
-        // (https://www.math.utah.edu/mathcircle/notes/permutations.pdf)
-        // Instead of checking that we will try to solve twin board which
-        // achieve by swapping two random cells
+        // Solvability is decided by parity of the permutation of tiles
+        // (https://www.math.utah.edu/mathcircle/notes/permutations.pdf),
+        // only solvable boards are searched
+        solvable = initial.isSolvable();
+        if (!solvable) {
+            return;
+        }
+
+        if (engine == Engine.IDA_STAR) {
+            // Replay moves from the end, path is kept in reverse order
+            int[] moves = new IdaStar(initial, heuristic).solve();
+            Board[] boards = new Board[moves.length + 1];
+            boards[0] = initial;
+            for (int i = 0; i < moves.length; i++) {
+                boards[i + 1] = boards[i].move(moves[i]);
+            }
+            for (int i = boards.length - 1; i >= 0; i--) {
+                path.add(boards[i]);
+            }
+            return;
+        }
+
         MinPQ<Node> frontier = new MinPQ<>(boardComparator);
         Node node = new Node(initial, null, 0);
         frontier.insert(node);
+        Closed closed = Closed.of(initial);
+        closed.offer(initial, 0);
 
-        MinPQ<Node> twinFrontier = new MinPQ<>(boardComparator);
-        Node twinNode = new Node(initial.twin(), null, 0);
-        twinFrontier.insert(twinNode);
-
-
-        boolean twinSolvable = false;
-        solvable = false;
-
-
-        // We will run A* algorithm until one of the boards
-        // is solvable
-        while (!twinSolvable && !solvable) {
-            twinSolvable = aStar(twinFrontier);
-            solvable = aStar(frontier);
+        // We will run A* algorithm until goal board is dequeued
+        boolean solved = false;
+        while (!solved) {
+            solved = aStar(frontier, closed);
         }
 
         // Entangle end node to solution sequence
@@ -52,19 +90,25 @@ public class Solver {
     }
 
 
-    private boolean aStar(MinPQ<Node> frontier) {
+    private boolean aStar(MinPQ<Node> frontier, Closed closed) {
 
         Node nextBoard = frontier.delMin();
-        nextBoard.moves++;
+
+        // Board was reached by a shorter path after this node was queued
+        if (closed.moves(nextBoard.board) < nextBoard.moves) {
+            return false;
+        }
 
         if (nextBoard.board.isGoal()) {
             solutionNode = nextBoard;
             return true;
         }
 
+        // Boards already reached in as many moves are dropped, this includes
+        // the parent board
         for (Board neighbor : nextBoard.board.neighbors()) {
-            if (nextBoard.parent == null || !neighbor.equals(nextBoard.parent.board)) {
-                Node newNode = new Node(neighbor, nextBoard, nextBoard.moves);
+            if (closed.offer(neighbor, nextBoard.moves + 1)) {
+                Node newNode = new Node(neighbor, nextBoard, nextBoard.moves + 1);
                 frontier.insert(newNode);
             }
         }
@@ -87,16 +131,249 @@ public class Solver {
         Board board;
         Node parent;
         int moves;
+        int estimate;
 
         Node(Board board, Node parent, int moves) {
             this.board = board;
             this.parent = parent;
             this.moves = moves;
+            estimate = heuristic.estimate(board);
         }
 
 
         int priority() {
-            return moves + board.manhattan();
+            return moves + estimate;
+        }
+    }
+
+    // Iterative deepening A*: depth first searches bounded by moves plus
+    // heuristic estimate, the bound raised to the smallest value that exceeded
+    // it until goal is found. Moves are applied to a single tile array and
+    // undone on the way back, so memory is proportional to solution length.
+    private static final class IdaStar {
+        // Returned by search once goal is reached
+        private static final int FOUND = -1;
+
+        private final int n;
+        private final Board.Geometry geometry;
+        private final Heuristic heuristic;
+        private final int[] tiles;
+        // Position of every tile, kept in step with tiles
+        private final int[] where;
+        private final int initialDistance;
+        private int blank;
+        private int bound;
+        // Positions of tiles moved into the empty cell on the current path
+        private int[] moves = new int[64];
+        private int depth;
+
+        IdaStar(Board initial, Heuristic heuristic) {
+            n = initial.dimension();
+            geometry = Board.Geometry.of(n);
+            this.heuristic = heuristic;
+            tiles = initial.tiles();
+            where = new int[tiles.length];
+            initialDistance = heuristic.estimate(tiles, n);
+            for (int i = 0; i < tiles.length; i++) {
+                where[tiles[i]] = i;
+            }
+            blank = where[0];
+        }
+
+        // Returns positions of tiles to move one after another, board must be
+        // solvable
+        int[] solve() {
+            bound = initialDistance;
+            while (true) {
+                int next = search(0, initialDistance, -1);
+                if (next == FOUND) {
+                    return Arrays.copyOf(moves, depth);
+                }
+                bound = next;
+            }
+        }
+
+        // Returns FOUND, leaving moves to the goal on the path, or the smallest
+        // moves plus distance exceeding bound among boards cut off
+        private int search(int g, int distance, int previous) {
+            int f = g + distance;
+            if (f > bound) {
+                return f;
+            }
+            // Heuristic may be zero for boards other than goal
+            if (distance == 0 && isGoal()) {
+                return FOUND;
+            }
+            int min = Integer.MAX_VALUE;
+            int i = geometry.row[blank];
+            int j = geometry.col[blank];
+            // Moving the empty cell back to the previous position only undoes
+            // the last move
+            if (i > 0 && blank - n != previous) {
+                min = Math.min(min, step(g, distance, blank - n));
+            }
+            if (min != FOUND && i < n - 1 && blank + n != previous) {
+                min = Math.min(min, step(g, distance, blank + n));
+            }
+            if (min != FOUND && j > 0 && blank - 1 != previous) {
+                min = Math.min(min, step(g, distance, blank - 1));
+            }
+            if (min != FOUND && j < n - 1 && blank + 1 != previous) {
+                min = Math.min(min, step(g, distance, blank + 1));
+            }
+            return min;
+        }
+
+        private boolean isGoal() {
+            for (int i = 0; i < tiles.length - 1; i++) {
+                if (tiles[i] != i + 1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Moves tile at given position into the empty cell, searches on and
+        // undoes the move unless goal was found
+        private int step(int g, int distance, int position) {
+            int tile = tiles[position];
+            int from = blank;
+            tiles[from] = tile;
+            tiles[position] = 0;
+            where[tile] = from;
+            where[0] = position;
+            blank = position;
+            int next = heuristic.update(tiles, where, n, distance, tile, position, from);
+            if (depth == moves.length) {
+                moves = Arrays.copyOf(moves, 2 * depth);
+            }
+            moves[depth++] = position;
+
+            int result = search(g + 1, next, from);
+            if (result == FOUND) {
+                return FOUND;
+            }
+
+            depth--;
+            blank = from;
+            where[0] = from;
+            where[tile] = position;
+            tiles[position] = tile;
+            tiles[from] = 0;
+            return result;
+        }
+    }
+
+    // Fewest moves found so far to every board reached by a search
+    private abstract static class Closed {
+        // Boards of this dimension or smaller are stored by their keys
+        static Closed of(Board initial) {
+            if (initial.dimension() <= Board.MAX_PACKED) {
+                return new PackedClosed();
+            }
+            return new HashClosed();
+        }
+
+        // Returns fewest moves recorded for board, Integer.MAX_VALUE if board
+        // was not reached yet
+        abstract int moves(Board board);
+
+        // Records that board is reached in given number of moves unless it was
+        // already reached in at most as many, returns whether it was recorded
+        abstract boolean offer(Board board, int moves);
+    }
+
+    // Open addressing table from board keys to moves. Key 0 marks empty slots
+    // and is kept apart.
+    private static final class PackedClosed extends Closed {
+        private long[] keys = new long[1 << 10];
+        private int[] values = new int[1 << 10];
+        // Slot index is taken from the top log2(keys.length) bits of the hash
+        private int shift = 64 - 10;
+        private int size;
+        private int zeroMoves = Integer.MAX_VALUE;
+
+        @Override
+        int moves(Board board) {
+            long key = board.key();
+            if (key == 0) {
+                return zeroMoves;
+            }
+            int i = slot(keys, key, shift);
+            return keys[i] == key ? values[i] : Integer.MAX_VALUE;
+        }
+
+        @Override
+        boolean offer(Board board, int moves) {
+            long key = board.key();
+            if (key == 0) {
+                if (zeroMoves <= moves) {
+                    return false;
+                }
+                zeroMoves = moves;
+                return true;
+            }
+            int i = slot(keys, key, shift);
+            if (keys[i] == key) {
+                if (values[i] <= moves) {
+                    return false;
+                }
+                values[i] = moves;
+                return true;
+            }
+            keys[i] = key;
+            values[i] = moves;
+            // Keeps table at most half full
+            if (++size > keys.length / 2) {
+                grow();
+            }
+            return true;
+        }
+
+        // Returns slot holding key or the empty slot where it belongs
+        private static int slot(long[] keys, long key, int shift) {
+            int mask = keys.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[2 * oldKeys.length];
+            values = new int[2 * oldKeys.length];
+            shift--;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int j = slot(keys, oldKeys[i], shift);
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    // Boards too large to be packed are kept in a HashMap
+    private static final class HashClosed extends Closed {
+        private final HashMap<Board, Integer> map = new HashMap<>();
+
+        @Override
+        int moves(Board board) {
+            Integer moves = map.get(board);
+            return moves == null ? Integer.MAX_VALUE : moves;
+        }
+
+        @Override
+        boolean offer(Board board, int moves) {
+            Integer previous = map.get(board);
+            if (previous != null && previous <= moves) {
+                return false;
+            }
+            map.put(board, moves);
+            return true;
         }
     }
 